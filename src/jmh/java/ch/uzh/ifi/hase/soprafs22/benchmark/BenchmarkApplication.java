@@ -0,0 +1,116 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.Application;
+import ch.uzh.ifi.hase.soprafs22.service.PasswordHasher;
+import ch.uzh.ifi.hase.soprafs22.service.UsernameIndex;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers shared by the benchmarks: starts the application against its own
+ * embedded H2 database, in memory or file-backed, and fills the user table.
+ */
+final class BenchmarkApplication {
+
+  static final String PASSWORD = "password";
+
+  private static final int INSERT_BATCH_SIZE = 10_000;
+
+  private BenchmarkApplication() {
+  }
+
+  /**
+   * Starts the application without a web server. Every context gets its own
+   * in-memory database so that parameter combinations do not see each others
+   * users.
+   */
+  static ConfigurableApplicationContext start(String databaseName, String... properties) {
+    return run(WebApplicationType.NONE, databaseName, properties);
+  }
+
+  /**
+   * Starts the application with Tomcat listening on a random port, see
+   * {@link #port(ConfigurableApplicationContext)}.
+   */
+  static ConfigurableApplicationContext startWebServer(String databaseName, String... properties) {
+    List<String> allProperties = new ArrayList<>(List.of(properties));
+    allProperties.add("server.port=0");
+    return run(WebApplicationType.SERVLET, databaseName, allProperties.toArray(new String[0]));
+  }
+
+  /**
+   * Starts the application without a web server against a file-backed H2
+   * database in the directory, with the settings of the h2file profile.
+   */
+  static ConfigurableApplicationContext startFileBacked(Path directory, String... properties) {
+    List<String> allProperties = new ArrayList<>(List.of(
+        "spring.profiles.active=h2file",
+        "user.database.directory=" + directory.toAbsolutePath()));
+    allProperties.addAll(List.of(properties));
+    return new SpringApplicationBuilder(Application.class)
+        .web(WebApplicationType.NONE)
+        .run(arguments(allProperties));
+  }
+
+  static int port(ConfigurableApplicationContext context) {
+    return context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+  }
+
+  private static ConfigurableApplicationContext run(WebApplicationType type, String databaseName,
+                                                    String... properties) {
+    List<String> allProperties = new ArrayList<>(List.of(
+        "spring.datasource.url=jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1"));
+    allProperties.addAll(List.of(properties));
+    return new SpringApplicationBuilder(Application.class)
+        .web(type)
+        .run(arguments(allProperties));
+  }
+
+  /**
+   * Passes the properties as command line arguments, default properties of
+   * the SpringApplicationBuilder would be overridden by application.properties.
+   */
+  private static String[] arguments(List<String> properties) {
+    List<String> allProperties = new ArrayList<>(List.of(
+        "spring.h2.console.enabled=false",
+        "logging.level.root=WARN"));
+    allProperties.addAll(properties);
+    return allProperties.stream().map(property -> "--" + property).toArray(String[]::new);
+  }
+
+  /**
+   * Inserts users "user0" to "user{count - 1}" with JDBC batches, which is
+   * orders of magnitude faster than going through the UserService, and moves
+   * the id sequence past them.
+   */
+  static void populate(ConfigurableApplicationContext context, int count) {
+    JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    // hashing every password would dominate the setup, all users share one hash
+    String passwordHash = context.getBean(PasswordHasher.class).hash(PASSWORD);
+    for (int start = 0; start < count; start += INSERT_BATCH_SIZE) {
+      List<Object[]> rows = new ArrayList<>(INSERT_BATCH_SIZE);
+      for (int i = start; i < Math.min(count, start + INSERT_BATCH_SIZE); i++) {
+        rows.add(new Object[] { (long) i + 1, passwordHash, username(i), username(i), "token" + i, now, false });
+      }
+      jdbcTemplate.batchUpdate("insert into \"user\" (id, password, username, username_key, token, creation_date, "
+          + "logged_in) values (?, ?, ?, ?, ?, ?, ?)", rows);
+    }
+    // leave room for a whole id block, whether Hibernate hands out the ids
+    // below or above the sequence value
+    jdbcTemplate.execute("alter sequence user_sequence restart with " + (count + 100));
+    // the rows were inserted behind the back of the in-memory indexes
+    context.getBean(UsernameIndex.class).rebuild();
+  }
+
+  static String username(int index) {
+    return "user" + index;
+  }
+}
@@ -0,0 +1,36 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of mapping a user entity to its API representation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DTOMapperBenchmark {
+
+  private User user;
+
+  @Setup
+  public void setup() {
+    user = new User();
+    user.setId(1L);
+    user.setUsername("username");
+    user.setPassword("password");
+    user.setToken("token");
+    user.setlogged_in(true);
+    user.setBirthday(new Date());
+  }
+
+  @Benchmark
+  public UserGetDTO convertEntityToUserGetDTO() {
+    return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+  }
+}
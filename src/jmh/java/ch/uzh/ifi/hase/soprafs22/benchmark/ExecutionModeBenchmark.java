@@ -0,0 +1,73 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the REST layer on Tomcat's platform thread pool versus virtual
+ * threads. Many more clients than request threads hit endpoints that go to the
+ * database on every call, so throughput in platform mode is capped by the pool
+ * size. Requests rejected by the connection pool guard show up as non-200
+ * status codes, not as errors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(256)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+public class ExecutionModeBenchmark {
+
+  private static final int USER_COUNT = 100_000;
+
+  @Param({ "false", "true" })
+  public boolean virtualThreads;
+
+  private ConfigurableApplicationContext context;
+
+  private HttpClient client;
+
+  private String baseUrl;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = BenchmarkApplication.startWebServer("executionmode" + virtualThreads,
+        "execution.virtual-threads=" + virtualThreads,
+        // a small pool makes the cap of the platform mode visible
+        "server.tomcat.threads.max=32",
+        // keep the cache out of the way, every lookup goes to the database
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+        "spring.jpa.properties.hibernate.cache.use_query_cache=false");
+    BenchmarkApplication.populate(context, USER_COUNT);
+    client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    baseUrl = "http://localhost:" + BenchmarkApplication.port(context);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public int getUserById() throws IOException, InterruptedException {
+    return get("/users/" + (ThreadLocalRandom.current().nextInt(USER_COUNT) + 1));
+  }
+
+  @Benchmark
+  public int getUsersPage() throws IOException, InterruptedException {
+    return get("/users?limit=50&after=" + ThreadLocalRandom.current().nextInt(USER_COUNT));
+  }
+
+  private int get(String path) throws IOException, InterruptedException {
+    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+    return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+}
@@ -0,0 +1,48 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.service.PasswordHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password verifications per second and core for different cost factors. The
+ * single threaded score is the number of logins one core can check per second,
+ * the benchmark with one thread per core shows how the hashing pool scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PasswordHasherBenchmark {
+
+  @Param({ "10000", "100000", "310000" })
+  public int iterations;
+
+  private PasswordHasher passwordHasher;
+
+  private String hash;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    int cores = Runtime.getRuntime().availableProcessors();
+    passwordHasher = new PasswordHasher(iterations, cores, cores * 4, 60_000);
+    hash = passwordHasher.hash(BenchmarkApplication.PASSWORD);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    passwordHasher.shutdown();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean verifySingleThread() {
+    return passwordHasher.verify(BenchmarkApplication.PASSWORD, hash);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean verifyAllCores() {
+    return passwordHasher.verify(BenchmarkApplication.PASSWORD, hash);
+  }
+}
@@ -0,0 +1,113 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Mixed read/write workload on the UserService against the in-memory and the
+ * file-backed H2 database (h2file profile) at different connection pool sizes.
+ * Readers and writers run concurrently, so the results show where more
+ * connections stop paying off for each backend before the pool settings are
+ * carried over to a real database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+public class PersistenceBackendBenchmark {
+
+  private static final int USER_COUNT = 100_000;
+
+  @Param({ "mem", "file" })
+  public String backend;
+
+  @Param({ "2", "8", "32" })
+  public int poolSize;
+
+  private Path directory;
+
+  private ConfigurableApplicationContext context;
+
+  private UserService userService;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    String[] properties = {
+        "spring.datasource.hikari.maximum-pool-size=" + poolSize,
+        "spring.datasource.hikari.minimum-idle=" + poolSize,
+        // keep the cache out of the way, every lookup goes to the database
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+        "spring.jpa.properties.hibernate.cache.use_query_cache=false" };
+    if ("file".equals(backend)) {
+      directory = Files.createTempDirectory("persistence-benchmark");
+      context = BenchmarkApplication.startFileBacked(directory, properties);
+    }
+    else {
+      context = BenchmarkApplication.start("persistence" + poolSize, properties);
+    }
+    BenchmarkApplication.populate(context, USER_COUNT);
+    userService = context.getBean(UserService.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    context.close();
+    if (directory != null) {
+      try (Stream<Path> files = Files.walk(directory)) {
+        files.sorted(Comparator.reverseOrder()).forEach(PersistenceBackendBenchmark::delete);
+      }
+    }
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(12)
+  public UserSummary getUserSummaryById() {
+    return userService.getUserSummaryById(randomId());
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(2)
+  public List<UserSummary> getUsersPage() {
+    return userService.getUsersAfter(randomId(), 50);
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(2)
+  public void updateUserBday() {
+    User user = new User();
+    user.setId(randomId());
+    user.setBirthday(new Date());
+    userService.updateUserBday(user);
+  }
+
+  private static long randomId() {
+    return ThreadLocalRandom.current().nextInt(USER_COUNT) + 1;
+  }
+
+  private static void delete(Path path) {
+    try {
+      Files.delete(path);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
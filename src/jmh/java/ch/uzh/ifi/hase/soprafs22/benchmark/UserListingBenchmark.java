@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and bytes on the wire of the complete user listing (GET /users) over
+ * HTTP/1.1 and h2c:
+ * - identity: uncompressed
+ * - gzip: precompressed from the UserListingCache
+ * - gzip-uncached: compressed by Tomcat on every request
+ * The responseBytes counter is the total of the response bodies as received,
+ * divide it by the number of operations for the size of a single response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+public class UserListingBenchmark {
+
+  @Param({ "10000", "100000" })
+  public int userCount;
+
+  @Param({ "identity", "gzip", "gzip-uncached" })
+  public String encoding;
+
+  @Param({ "HTTP_1_1", "HTTP_2" })
+  public HttpClient.Version protocol;
+
+  private ConfigurableApplicationContext context;
+
+  private HttpClient client;
+
+  private HttpRequest request;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Wire {
+
+    public long responseBytes;
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = BenchmarkApplication.startWebServer("listing" + userCount + encoding + protocol,
+        "user.listing.gzip-cache.enabled=" + !"gzip-uncached".equals(encoding));
+    BenchmarkApplication.populate(context, userCount);
+    client = HttpClient.newBuilder().version(protocol).build();
+    // the client does not decompress, the body is counted as received
+    request = HttpRequest.newBuilder(URI.create("http://localhost:" + BenchmarkApplication.port(context) + "/users"))
+        .header("Accept-Encoding", "identity".equals(encoding) ? "identity" : "gzip")
+        .GET()
+        .build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public int getUsers(Wire wire) throws IOException, InterruptedException {
+    HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    try (InputStream body = response.body()) {
+      wire.responseBytes += body.transferTo(OutputStream.nullOutputStream());
+    }
+    return response.statusCode();
+  }
+}
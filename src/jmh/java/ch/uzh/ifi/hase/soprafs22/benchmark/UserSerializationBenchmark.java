@@ -0,0 +1,87 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.UserJsonWriter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing one chunk of the GET /users stream, once through a
+ * UserGetDTO per user and once straight from the entities. The allocation per
+ * operation is reported by the gc profiler (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserSerializationBenchmark {
+
+  @Param({ "500" })
+  public int userCount;
+
+  private ObjectMapper objectMapper;
+
+  private ObjectWriter userWriter;
+
+  private List<User> users;
+
+  private List<UserSummary> summaries;
+
+  @Setup
+  public void setup() {
+    objectMapper = Jackson2ObjectMapperBuilder.json()
+        .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .build();
+    userWriter = objectMapper.writerFor(UserGetDTO.class)
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    users = new ArrayList<>(userCount);
+    summaries = new ArrayList<>(userCount);
+    for (int i = 0; i < userCount; i++) {
+      User user = new User();
+      user.setId((long) i);
+      user.setUsername(BenchmarkApplication.username(i));
+      user.setPassword(BenchmarkApplication.PASSWORD);
+      user.setToken("token" + i);
+      user.setlogged_in(i % 2 == 0);
+      user.setBirthday(new Date());
+      users.add(user);
+      summaries.add(UserSummary.of(user));
+    }
+  }
+
+  @Benchmark
+  public void writeUserGetDTOs() throws IOException {
+    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(OutputStream.nullOutputStream())) {
+      generator.writeStartArray();
+      for (User user : users) {
+        userWriter.writeValue(generator, DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+      }
+      generator.writeEndArray();
+    }
+  }
+
+  @Benchmark
+  public void writeUsers() throws IOException {
+    try (UserJsonWriter writer = new UserJsonWriter(objectMapper, OutputStream.nullOutputStream())) {
+      writer.writeStartArray();
+      for (UserSummary user : summaries) {
+        writer.write(user);
+      }
+      writer.writeEndArray();
+    }
+  }
+}
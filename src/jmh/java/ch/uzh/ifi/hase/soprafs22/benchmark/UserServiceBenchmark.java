@@ -0,0 +1,85 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency of the UserService hot paths against the embedded H2
+ * database at different table sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UserServiceBenchmark {
+
+  @Param({ "1000", "100000", "1000000" })
+  public int userCount;
+
+  private final AtomicLong createdUsers = new AtomicLong();
+
+  private ConfigurableApplicationContext context;
+
+  private UserService userService;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = BenchmarkApplication.start("userservice" + userCount);
+    BenchmarkApplication.populate(context, userCount);
+    userService = context.getBean(UserService.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public User createUser() {
+    User user = new User();
+    user.setUsername("created" + createdUsers.incrementAndGet());
+    user.setPassword(BenchmarkApplication.PASSWORD);
+    return userService.createUser(user);
+  }
+
+  @Benchmark
+  public User loginUser() {
+    User user = new User();
+    user.setUsername(BenchmarkApplication.username(ThreadLocalRandom.current().nextInt(userCount)));
+    user.setPassword(BenchmarkApplication.PASSWORD);
+    return userService.loginUser(user);
+  }
+
+  @Benchmark
+  public User getUserById() {
+    return userService.getUserById((long) ThreadLocalRandom.current().nextInt(userCount) + 1);
+  }
+
+  @Benchmark
+  public UserSummary getUserSummaryById() {
+    return userService.getUserSummaryById((long) ThreadLocalRandom.current().nextInt(userCount) + 1);
+  }
+
+  @Benchmark
+  public List<UserSummary> getUsersPage() {
+    return userService.getUsersAfter((long) ThreadLocalRandom.current().nextInt(userCount), 100);
+  }
+
+  /**
+   * Loads the whole table, for 1M users a single invocation takes seconds.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Measurement(iterations = 5)
+  @Warmup(iterations = 1)
+  public List<User> getUsers() {
+    return userService.getUsers();
+  }
+}
@@ -0,0 +1,65 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserFilter;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import ch.uzh.ifi.hase.soprafs22.service.UsernameIndex;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typeahead search for the first ten usernames with a prefix of one to three
+ * digits after "user", from the UsernameIndex and as a LIKE query on the
+ * indexed username key column. The estimated size of the index is printed
+ * once it is loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UsernameSearchBenchmark {
+
+  @Param({ "100000", "1000000" })
+  public int userCount;
+
+  private ConfigurableApplicationContext context;
+
+  private UserService userService;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = BenchmarkApplication.start("search" + userCount);
+    BenchmarkApplication.populate(context, userCount);
+    userService = context.getBean(UserService.class);
+    UsernameIndex usernameIndex = context.getBean(UsernameIndex.class);
+    System.out.printf("%nUsername index: %d entries, about %d KiB%n", usernameIndex.size(),
+        usernameIndex.getEstimatedBytes() / 1024);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public List<UsernameIndex.Match> searchIndex() {
+    return userService.searchUsernames(randomPrefix(), 10);
+  }
+
+  @Benchmark
+  public List<UserSummary> searchDatabase() {
+    UserFilter filter = new UserFilter();
+    filter.setUsernamePrefix(randomPrefix());
+    return userService.getUsersMatching(filter, Sort.by("username"), null, 10);
+  }
+
+  private static String randomPrefix() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int digits = random.nextInt(1, 4);
+    return BenchmarkApplication.username(random.nextInt((int) Math.pow(10, digits)));
+  }
+}
@@ -0,0 +1,89 @@
+package ch.uzh.ifi.hase.soprafs22.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Requests, errors and latencies of one operation of the workload. Latencies
+ * are recorded in microseconds, from 1 microsecond up to one minute with three
+ * significant digits.
+ */
+final class EndpointStats {
+
+  private final Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+
+  private final LongAdder requests = new LongAdder();
+
+  private final LongAdder errors = new LongAdder();
+
+  private final Map<String, LongAdder> statuses = new ConcurrentSkipListMap<>();
+
+  /**
+   * @param status the status code of the response, or a short name of the
+   *               error if there was none
+   */
+  void record(long latencyNanos, String status, boolean success) {
+    requests.increment();
+    if (!success) {
+      errors.increment();
+    }
+    statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+    long micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+    latencies.recordValue(Math.max(1, Math.min(micros, latencies.getHighestTrackableValue())));
+  }
+
+  long getRequests() {
+    return requests.sum();
+  }
+
+  long getErrors() {
+    return errors.sum();
+  }
+
+  Histogram getLatencies() {
+    return latencies;
+  }
+
+  /**
+   * @return the report of this operation, latencies in milliseconds
+   */
+  Map<String, Object> toReport(double durationSeconds) {
+    Map<String, Object> report = toReport(latencies, getRequests(), getErrors(), durationSeconds);
+    Map<String, Long> statusReport = new LinkedHashMap<>();
+    statuses.forEach((status, count) -> statusReport.put(status, count.sum()));
+    report.put("statuses", statusReport);
+    return report;
+  }
+
+  static Map<String, Object> toReport(Histogram latencies, long requests, long errors, double durationSeconds) {
+    Map<String, Object> latencyReport = new LinkedHashMap<>();
+    latencyReport.put("mean", round(latencies.getMean() / 1000));
+    latencyReport.put("p50", percentile(latencies, 50));
+    latencyReport.put("p90", percentile(latencies, 90));
+    latencyReport.put("p99", percentile(latencies, 99));
+    latencyReport.put("p999", percentile(latencies, 99.9));
+    latencyReport.put("max", round(latencies.getMaxValue() / 1000.0));
+
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("requests", requests);
+    report.put("errors", errors);
+    report.put("errorRate", requests == 0 ? 0 : round((double) errors / requests));
+    report.put("throughput", round(requests / durationSeconds));
+    report.put("latencyMs", latencyReport);
+    return report;
+  }
+
+  private static double percentile(Histogram latencies, double percentile) {
+    return round(latencies.getValueAtPercentile(percentile) / 1000.0);
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 1000) / 1000.0;
+  }
+}
@@ -0,0 +1,247 @@
+package ch.uzh.ifi.hase.soprafs22.loadtest;
+
+import ch.uzh.ifi.hase.soprafs22.Application;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load Test
+ * Boots the application on a random port against its own in-memory H2
+ * database, registers a pool of users and then sends requests of the
+ * configured mix at a fixed rate from a number of concurrent clients.
+ * Requests are sent on schedule whether or not earlier ones have been
+ * answered (an open workload), and latencies are measured from the scheduled
+ * time, so a slow server shows up as higher latencies instead of a lower
+ * request rate. Requests scheduled during the warmup are not counted.
+ * The throughput, latency percentiles and error rate of every operation are
+ * written as JSON to the report file.
+ *
+ * Configured with system properties, see {@link #main(String[])}. Properties
+ * starting with loadtest.app. are passed to the application, e.g.
+ * -Dloadtest.app.user.password.iterations=1000.
+ */
+public final class LoadTest {
+
+  private static final String APP_PROPERTY_PREFIX = "loadtest.app.";
+
+  private final int rate;
+
+  private final int durationSeconds;
+
+  private final int warmupSeconds;
+
+  private final int clients;
+
+  private final int users;
+
+  private final boolean async;
+
+  private final Map<Workload.Operation, Integer> mix;
+
+  private final Path report;
+
+  private final Map<Workload.Operation, EndpointStats> stats = new EnumMap<>(Workload.Operation.class);
+
+  private LoadTest() {
+    this.rate = Integer.getInteger("loadtest.rate", 100);
+    this.durationSeconds = Integer.getInteger("loadtest.duration-seconds", 30);
+    this.warmupSeconds = Integer.getInteger("loadtest.warmup-seconds", 5);
+    this.clients = Integer.getInteger("loadtest.clients", 32);
+    this.users = Integer.getInteger("loadtest.users", 100);
+    this.async = Boolean.getBoolean("loadtest.async");
+    this.mix = Workload.parseMix(System.getProperty("loadtest.mix",
+        "register=5,login=10,logout=5,get=40,list=25,update=15"));
+    this.report = Paths.get(System.getProperty("loadtest.report", "build/reports/loadtest/results.json"));
+    // all of them, logouts are replaced by logins while nobody is logged in
+    for (Workload.Operation operation : Workload.Operation.values()) {
+      stats.put(operation, new EndpointStats());
+    }
+  }
+
+  /**
+   * System properties:
+   * - loadtest.rate: requests per second, default 100
+   * - loadtest.duration-seconds: measured duration, default 30
+   * - loadtest.warmup-seconds: load before the measurement, default 5
+   * - loadtest.clients: concurrent connections, default 32
+   * - loadtest.users: registered users the requests go to, default 100
+   * - loadtest.mix: weights of register, login, logout, get, list and update
+   * - loadtest.async: send login, get and list to the /async endpoints,
+   *   default false
+   * - loadtest.report: JSON report, default build/reports/loadtest/results.json
+   */
+  public static void main(String[] args) throws Exception {
+    new LoadTest().run();
+  }
+
+  private void run() throws Exception {
+    try (ConfigurableApplicationContext context = startApplication()) {
+      String baseUrl = "http://localhost:" + context.getEnvironment().getRequiredProperty("local.server.port");
+      ExecutorService executor = Executors.newFixedThreadPool(clients);
+      try {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        Workload workload = new Workload(client, baseUrl, mix, users, async);
+        seed(workload);
+        long started = System.nanoTime();
+        drive(workload, executor);
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        log("Finished after %d s", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started));
+      }
+      finally {
+        executor.shutdownNow();
+      }
+    }
+    writeReport();
+  }
+
+  private ConfigurableApplicationContext startApplication() {
+    List<String> properties = new ArrayList<>(List.of(
+        "server.port=0",
+        "spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+        "spring.h2.console.enabled=false",
+        "logging.level.root=WARN",
+        // every request comes from the same address and the pool users log in
+        // over and over again, the throttle would reject most of them
+        "user.login.rate-limit.enabled=false"));
+    System.getProperties().stringPropertyNames().stream()
+        .filter(name -> name.startsWith(APP_PROPERTY_PREFIX))
+        .forEach(name -> properties.add(name.substring(APP_PROPERTY_PREFIX.length()) + "=" + System.getProperty(name)));
+    // as command line arguments, they have to override application.properties
+    return new SpringApplicationBuilder(Application.class)
+        .web(WebApplicationType.SERVLET)
+        .run(properties.stream().map(property -> "--" + property).toArray(String[]::new));
+  }
+
+  /**
+   * Registers the pool users a few at a time, the passwords are hashed on the
+   * bounded password pool and a burst of registrations would be rejected with
+   * 503 before the load has even started.
+   */
+  private void seed(Workload workload) throws Exception {
+    log("Registering %d users", users);
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      List<Future<?>> registrations = new ArrayList<>(users);
+      for (int i = 0; i < users; i++) {
+        int index = i;
+        registrations.add(executor.submit(() -> {
+          workload.seed(index);
+          return null;
+        }));
+      }
+      for (Future<?> registration : registrations) {
+        registration.get();
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void drive(Workload workload, ExecutorService executor) {
+    log("Sending %d requests per second for %d s after %d s of warmup from %d clients", rate, durationSeconds,
+        warmupSeconds, clients);
+    long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+    long start = System.nanoTime();
+    long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+    long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+    for (long i = 0; ; i++) {
+      long scheduled = start + i * intervalNanos;
+      if (scheduled >= end) {
+        return;
+      }
+      long wait = scheduled - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      Workload.Operation operation = workload.next();
+      boolean measured = scheduled >= measureFrom;
+      executor.execute(() -> send(workload, operation, scheduled, measured));
+    }
+  }
+
+  private void send(Workload workload, Workload.Operation operation, long scheduled, boolean measured) {
+    String status;
+    boolean success;
+    try {
+      int statusCode = workload.run(operation);
+      status = String.valueOf(statusCode);
+      success = Workload.isSuccess(statusCode);
+    }
+    catch (IOException e) {
+      status = e.getClass().getSimpleName();
+      success = false;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if (measured) {
+      stats.get(operation).record(System.nanoTime() - scheduled, status, success);
+    }
+  }
+
+  private void writeReport() throws IOException {
+    Map<String, Object> config = new LinkedHashMap<>();
+    config.put("rate", rate);
+    config.put("durationSeconds", durationSeconds);
+    config.put("warmupSeconds", warmupSeconds);
+    config.put("clients", clients);
+    config.put("users", users);
+    Map<String, Integer> mixReport = new LinkedHashMap<>();
+    mix.forEach((operation, weight) -> mixReport.put(operation.key(), weight));
+    config.put("mix", mixReport);
+
+    Map<String, Object> endpoints = new LinkedHashMap<>();
+    Histogram total = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+    long requests = 0;
+    long errors = 0;
+    for (Map.Entry<Workload.Operation, EndpointStats> entry : stats.entrySet()) {
+      EndpointStats endpoint = entry.getValue();
+      if (!mix.containsKey(entry.getKey()) && endpoint.getRequests() == 0) {
+        continue;
+      }
+      endpoints.put(entry.getKey().key(), endpoint.toReport(durationSeconds));
+      total.add(endpoint.getLatencies());
+      requests += endpoint.getRequests();
+      errors += endpoint.getErrors();
+    }
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("config", config);
+    result.put("total", EndpointStats.toReport(total, requests, errors, durationSeconds));
+    result.put("endpoints", endpoints);
+
+    Path parent = report.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report.toFile(), result);
+    log("Report written to %s", report.toAbsolutePath());
+  }
+
+  private static void log(String format, Object... args) {
+    System.out.println("[loadtest] " + String.format(format, args));
+  }
+}
@@ -0,0 +1,191 @@
+package ch.uzh.ifi.hase.soprafs22.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The requests of the load test: a weighted mix of operations on a pool of
+ * registered users. The workload keeps track of which users are logged in, so
+ * logouts only go to logged in users and do not show up as errors.
+ */
+final class Workload {
+
+  enum Operation {
+    REGISTER, LOGIN, LOGOUT, GET, LIST, UPDATE;
+
+    String key() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  static final String PASSWORD = "load-test-password";
+
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+  private final HttpClient client;
+
+  private final String baseUrl;
+
+  /**
+   * Path prefix of the login, get and list requests, empty or /async.
+   */
+  private final String readPrefix;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final Operation[] operations;
+
+  private final int[] cumulativeWeights;
+
+  private final AtomicLongArray userIds;
+
+  private final AtomicIntegerArray loggedIn;
+
+  private final Queue<Integer> logoutCandidates = new ConcurrentLinkedQueue<>();
+
+  private final AtomicLong registrations = new AtomicLong();
+
+  Workload(HttpClient client, String baseUrl, Map<Operation, Integer> mix, int userCount, boolean async) {
+    this.client = client;
+    this.baseUrl = baseUrl;
+    this.readPrefix = async ? "/async" : "";
+    this.operations = mix.keySet().toArray(new Operation[0]);
+    this.cumulativeWeights = new int[operations.length];
+    int total = 0;
+    for (int i = 0; i < operations.length; i++) {
+      total += mix.get(operations[i]);
+      cumulativeWeights[i] = total;
+    }
+    this.userIds = new AtomicLongArray(userCount);
+    this.loggedIn = new AtomicIntegerArray(userCount);
+  }
+
+  /**
+   * Parses a mix like "get=40,list=20,login=10", operations that are left out
+   * are not run.
+   */
+  static Map<Operation, Integer> parseMix(String mix) {
+    Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid mix entry: " + entry);
+      }
+      int weight = Integer.parseInt(parts[1].trim());
+      if (weight > 0) {
+        weights.put(Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), weight);
+      }
+    }
+    if (weights.isEmpty()) {
+      throw new IllegalArgumentException("The mix contains no operation");
+    }
+    return weights;
+  }
+
+  /**
+   * @return a random operation of the mix, a login instead of a logout while
+   *         nobody is logged in
+   */
+  Operation next() {
+    int value = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+    for (int i = 0; i < operations.length; i++) {
+      if (value < cumulativeWeights[i]) {
+        return operations[i] == Operation.LOGOUT && logoutCandidates.isEmpty() ? Operation.LOGIN : operations[i];
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * Registers the user with this index of the pool, before the load starts.
+   */
+  void seed(int index) throws IOException, InterruptedException {
+    HttpResponse<String> response = send(json("POST", "/users", credentials("load-user" + index)));
+    if (response.statusCode() != 201) {
+      throw new IllegalStateException("Seeding user " + index + " failed with " + response.statusCode());
+    }
+    userIds.set(index, readId(response));
+    loggedIn.set(index, 1);
+    logoutCandidates.add(index);
+  }
+
+  /**
+   * @return the status code of the response, 304 and 2xx count as success
+   */
+  int run(Operation operation) throws IOException, InterruptedException {
+    int index = ThreadLocalRandom.current().nextInt(userIds.length());
+    switch (operation) {
+      case REGISTER:
+        return send(json("POST", "/users", credentials("load-new" + registrations.incrementAndGet()))).statusCode();
+      case LOGIN:
+        int status = send(json("PUT", readPrefix + "/users/login", credentials("load-user" + index))).statusCode();
+        if (status == 200 && loggedIn.compareAndSet(index, 0, 1)) {
+          logoutCandidates.add(index);
+        }
+        return status;
+      case LOGOUT:
+        Integer loggedInIndex = logoutCandidates.poll();
+        if (loggedInIndex == null) {
+          // another client took the last logged in user since next()
+          return run(Operation.LOGIN);
+        }
+        loggedIn.set(loggedInIndex, 0);
+        return send(json("PUT", "/users/" + userIds.get(loggedInIndex) + "/logout", "")).statusCode();
+      case GET:
+        return send(get(readPrefix + "/users/" + userIds.get(index))).statusCode();
+      case LIST:
+        return send(get(readPrefix + "/users?limit=50&after=" + userIds.get(index))).statusCode();
+      case UPDATE:
+        // only the birthday, renaming would break the logins of the pool
+        String birthday = "{\"id\":" + userIds.get(index) + ",\"birthday\":\"2000-01-01\"}";
+        return send(json("PATCH", "/users/" + userIds.get(index), birthday)).statusCode();
+      default:
+        throw new IllegalArgumentException("Unknown operation " + operation);
+    }
+  }
+
+  static boolean isSuccess(int status) {
+    return status == 304 || (status >= 200 && status < 300);
+  }
+
+  private String credentials(String username) {
+    return "{\"username\":\"" + username + "\",\"password\":\"" + PASSWORD + "\"}";
+  }
+
+  private long readId(HttpResponse<String> response) throws IOException {
+    JsonNode body = objectMapper.readTree(response.body());
+    return body.get("id").asLong();
+  }
+
+  private HttpRequest get(String path) {
+    return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(REQUEST_TIMEOUT).GET().build();
+  }
+
+  private HttpRequest json(String method, String path, String body) {
+    return HttpRequest.newBuilder(URI.create(baseUrl + path))
+        .timeout(REQUEST_TIMEOUT)
+        .header("Content-Type", "application/json")
+        .method(method, HttpRequest.BodyPublishers.ofString(body))
+        .build();
+  }
+
+  private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+    return client.send(request, HttpResponse.BodyHandlers.ofString());
+  }
+}
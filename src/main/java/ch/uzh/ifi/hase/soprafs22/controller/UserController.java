@@ -1,15 +1,48 @@
 package ch.uzh.ifi.hase.soprafs22.controller;
 
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.execution.AsyncRequestExecutor;
+import ch.uzh.ifi.hase.soprafs22.repository.UserFilter;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSpecifications;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserBatchResultDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserSearchResultDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.UserJsonWriter;
+import ch.uzh.ifi.hase.soprafs22.security.LoginThrottle;
+import ch.uzh.ifi.hase.soprafs22.service.PresenceBroadcaster;
+import ch.uzh.ifi.hase.soprafs22.service.UserBatchResult;
 import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import ch.uzh.ifi.hase.soprafs22.service.UserVersionTracker;
+import ch.uzh.ifi.hase.soprafs22.service.UsernameIndex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * User Controller
@@ -21,41 +54,341 @@ import java.util.List;
 @RestController
 public class UserController {
 
+  /**
+   * Number of users fetched from the database per round-trip while streaming
+   * the user list.
+   */
+  static final int USER_CHUNK_SIZE = 500;
+
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  static final String NDJSON_VALUE = "application/x-ndjson";
+
+  public static final String PRESENCE_STREAM_PATH = "/users/presence/stream";
+
+  public static final String ONLINE_COUNT_PATH = "/users/presence/count";
+
+  public static final String SEARCH_PATH = "/users/search";
+
+  static final int DEFAULT_SEARCH_RESULTS = 10;
+
+  /**
+   * Prefix of the asynchronous variants of the read endpoints and the login,
+   * see {@link AsyncRequestExecutor}.
+   */
+  public static final String ASYNC_PATH_PREFIX = "/async";
+
   private final UserService userService;
 
-  UserController(UserService userService) {
+  private final ObjectMapper objectMapper;
+
+  private final UserVersionTracker userVersionTracker;
+
+  private final PresenceBroadcaster presenceBroadcaster;
+
+  private final LoginThrottle loginThrottle;
+
+  private final UserListingCache userListingCache;
+
+  private final AsyncRequestExecutor asyncRequestExecutor;
+
+  UserController(UserService userService, ObjectMapper objectMapper, UserVersionTracker userVersionTracker,
+                 PresenceBroadcaster presenceBroadcaster, LoginThrottle loginThrottle,
+                 UserListingCache userListingCache, AsyncRequestExecutor asyncRequestExecutor) {
     this.userService = userService;
+    this.objectMapper = objectMapper;
+    this.userVersionTracker = userVersionTracker;
+    this.presenceBroadcaster = presenceBroadcaster;
+    this.loginThrottle = loginThrottle;
+    this.userListingCache = userListingCache;
+    this.asyncRequestExecutor = asyncRequestExecutor;
   }
 
+  /**
+   * Answers with 304 Not Modified, without a body, if the client already has
+   * the current version of the user (If-None-Match / If-Modified-Since).
+   */
   @GetMapping("/users/{Id}")
-  @ResponseStatus(HttpStatus.OK)
   @ResponseBody
-  public UserGetDTO getUserById(@PathVariable("Id") Long Id) {
-    // fetch all users in the internal representation
-    User user = userService.getUserById(Id);
-    return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+  public UserGetDTO getUserById(@PathVariable("Id") Long Id, WebRequest webRequest) {
+    if (checkNotModified(webRequest, userVersionTracker.getUserETag(Id),
+        userVersionTracker.getUserLastModified(Id))) {
+      return null;
+    }
+    // fetch the user in its read-only representation
+    UserSummary user = userService.getUserSummaryById(Id);
+    return DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user);
   }
 
+  /**
+   * Without a limit the whole user table is streamed to the client, fetching
+   * {@link #USER_CHUNK_SIZE} users at a time, so memory use does not depend on
+   * the number of users. With a limit a single keyset page is returned and the
+   * cursor for the next page is sent in the {@value #NEXT_CURSOR_HEADER}
+   * header. Both are answered with 304 Not Modified if no user has changed
+   * since the client's version.
+   * Clients accepting gzip get the complete listing from the
+   * UserListingCache, already compressed. Everything else is compressed by
+   * the server if server.compression is enabled.
+   * With online=true only the users that are logged in are listed, taken from
+   * the PresenceRegistry instead of scanning the table.
+   * The other parameters filter and sort the users in the database, see
+   * {@link UserService#getUsersMatching(UserFilter, Sort, Long, int)}. The
+   * ranges include their start and exclude their end, sort takes a property
+   * and optionally a direction (sort=creation_date,desc). Sorted by anything
+   * but the id there is no cursor, so a limit is required.
+   */
   @GetMapping("/users")
-  @ResponseStatus(HttpStatus.OK)
-  @ResponseBody
-  public List<UserGetDTO> getAllUsers() {
-      // fetch all users in the internal representation
-      List<User> users = userService.getUsers();
-      List<UserGetDTO> userGetDTOs = new ArrayList<>();
+  public ResponseEntity<StreamingResponseBody> getAllUsers(
+      @RequestParam(value = "after", required = false) Long after,
+      @RequestParam(value = "limit", required = false) Integer limit,
+      @RequestParam(value = "online", required = false) Boolean online,
+      @RequestParam(value = "username_prefix", required = false) String usernamePrefix,
+      @RequestParam(value = "logged_in", required = false) Boolean loggedIn,
+      @RequestParam(value = "created_from", required = false)
+      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date createdFrom,
+      @RequestParam(value = "created_to", required = false)
+      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date createdTo,
+      @RequestParam(value = "birthday_from", required = false)
+      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date birthdayFrom,
+      @RequestParam(value = "birthday_to", required = false)
+      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date birthdayTo,
+      @RequestParam(value = "sort", required = false) String sort,
+      WebRequest webRequest) {
+      UserFilter filter = userFilter(usernamePrefix, loggedIn, createdFrom, createdTo, birthdayFrom, birthdayTo);
+      UserPages pages = userPages(online, filter, sort, limit);
+      boolean unfiltered = online == null && filter.isEmpty() && sort == null;
+      String eTag = userVersionTracker.getCollectionETag();
+      if (checkNotModified(webRequest, eTag, userVersionTracker.getCollectionLastModified())) {
+          return null;
+      }
+      if (limit == null && after == null && unfiltered && userListingCache.isEnabled()
+          && acceptsGzip(webRequest)) {
+          // the server does not compress responses that already have a content encoding
+          return ResponseEntity.ok()
+                  .contentType(MediaType.APPLICATION_JSON)
+                  .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                  .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                  .body(outputStream -> userListingCache.writeGzip(eTag, outputStream,
+                      gzip -> streamUsers(gzip, null, pages)));
+      }
+      if (limit == null) {
+          return ResponseEntity.ok()
+                  .contentType(MediaType.APPLICATION_JSON)
+                  .body(outputStream -> streamUsers(outputStream, after, pages));
+      }
+
+      // fetch the page up front so that the cursor can go into the headers
+      List<UserSummary> page = pages.get(after, limit);
+      ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+      if (page.size() == limit && sortedById(sort)) {
+          response.header(NEXT_CURSOR_HEADER, String.valueOf(page.get(page.size() - 1).getId()));
+      }
+      return response.body(outputStream -> {
+          try (UserJsonWriter writer = new UserJsonWriter(objectMapper, outputStream)) {
+              writer.writeStartArray();
+              writeUsers(writer, page);
+              writer.writeEndArray();
+          }
+      });
+  }
+
+  private static UserFilter userFilter(String usernamePrefix, Boolean loggedIn, Date createdFrom, Date createdTo,
+                                       Date birthdayFrom, Date birthdayTo) {
+      UserFilter filter = new UserFilter();
+      filter.setUsernamePrefix(usernamePrefix);
+      filter.setLoggedIn(loggedIn);
+      filter.setCreatedFrom(createdFrom);
+      filter.setCreatedTo(createdTo);
+      filter.setBirthdayFrom(birthdayFrom);
+      filter.setBirthdayTo(birthdayTo);
+      return filter;
+  }
+
+  /**
+   * @return the pages of the users selected by the parameters of GET /users
+   */
+  private UserPages userPages(Boolean online, UserFilter filter, String sort, Integer limit) {
+      boolean filtered = !filter.isEmpty() || sort != null;
+      if (Boolean.FALSE.equals(online)) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Use logged_in=false for offline users");
+      }
+      boolean onlineOnly = Boolean.TRUE.equals(online);
+      if (onlineOnly && filtered) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "online cannot be combined with other filters");
+      }
+      if (onlineOnly) {
+          return userService::getOnlineUsersAfter;
+      }
+      if (filtered) {
+          Sort order = parseSort(sort);
+          if (limit == null && !sortedById(sort)) {
+              throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A limit is required unless sorted by id");
+          }
+          return (cursor, pageSize) -> userService.getUsersMatching(filter, order, cursor, pageSize);
+      }
+      return userService::getUsersAfter;
+  }
+
+  /**
+   * Sets the ETag and Last-Modified headers and checks them against the
+   * conditional headers of the request, see
+   * {@link WebRequest#checkNotModified(String, long)}.
+   */
+  private boolean checkNotModified(WebRequest webRequest, String eTag, long lastModified) {
+      boolean notModified = webRequest.checkNotModified(eTag, lastModified);
+      userVersionTracker.recordConditionalRequest(notModified);
+      return notModified;
+  }
+
+  /**
+   * @param sort property and optional direction, e.g. username or
+   *             creation_date,desc, null for the id
+   */
+  private static Sort parseSort(String sort) {
+      if (sort == null) {
+          return Sort.by("id");
+      }
+      String[] parts = sort.split(",");
+      String property = parts[0].trim();
+      if (parts.length > 2 || !UserSpecifications.SORTABLE_PROPERTIES.contains(property)) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Users can only be sorted by "
+              + String.join(", ", new TreeSet<>(UserSpecifications.SORTABLE_PROPERTIES)));
+      }
+      Sort.Direction direction = Sort.Direction.ASC;
+      if (parts.length == 2) {
+          direction = Sort.Direction.fromOptionalString(parts[1].trim()).orElseThrow(
+              () -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Sort direction must be asc or desc"));
+      }
+      return Sort.by(direction, property);
+  }
+
+  /**
+   * @return true if the ids of a page are a cursor for the next one, i.e. the
+   *         users are sorted by id in either direction
+   */
+  private static boolean sortedById(String sort) {
+      return "id".equals(parseSort(sort).iterator().next().getProperty());
+  }
+
+  /**
+   * @return true if the Accept-Encoding header gives gzip a q-value above 0,
+   *         by name or through "*" if gzip is not listed
+   */
+  private static boolean acceptsGzip(WebRequest webRequest) {
+      String acceptEncoding = webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING);
+      if (acceptEncoding == null) {
+          return false;
+      }
+      Double gzip = null;
+      Double any = null;
+      for (String coding : acceptEncoding.split(",")) {
+          String[] parameters = coding.split(";");
+          String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+          double quality = 1;
+          for (int i = 1; i < parameters.length; i++) {
+              String parameter = parameters[i].trim();
+              if (parameter.regionMatches(true, 0, "q=", 0, 2)) {
+                  quality = parseQuality(parameter.substring(2));
+              }
+          }
+          if ("gzip".equals(name) || "x-gzip".equals(name)) {
+              gzip = quality;
+          }
+          else if ("*".equals(name)) {
+              any = quality;
+          }
+      }
+      double quality = gzip != null ? gzip : any != null ? any : 0;
+      return quality > 0;
+  }
+
+  /**
+   * @return the q-value, 0 if it is malformed
+   */
+  private static double parseQuality(String value) {
+      try {
+          double quality = Double.parseDouble(value.trim());
+          return quality >= 0 && quality <= 1 ? quality : 0;
+      }
+      catch (NumberFormatException e) {
+          return 0;
+      }
+  }
+
+  private void streamUsers(OutputStream outputStream, Long after, UserPages pages) throws IOException {
+      try (UserJsonWriter writer = new UserJsonWriter(objectMapper, outputStream)) {
+          writer.writeStartArray();
+          Long cursor = after;
+          List<UserSummary> chunk;
+          do {
+              chunk = pages.get(cursor, USER_CHUNK_SIZE);
+              if (!chunk.isEmpty()) {
+                  writeUsers(writer, chunk);
+                  writer.flush();
+                  cursor = chunk.get(chunk.size() - 1).getId();
+              }
+          } while (chunk.size() == USER_CHUNK_SIZE);
+          writer.writeEndArray();
+      }
+  }
 
-      // convert each user to the API representation
-      for (User user : users) {
-          userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+  private void writeUsers(UserJsonWriter writer, List<UserSummary> users) throws IOException {
+      // write each user in its API representation, without an intermediate DTO
+      for (UserSummary user : users) {
+          writer.write(user);
       }
-      return userGetDTOs;
+  }
+
+  /**
+   * Keyset pages of users, see {@link UserService#getUsersAfter(Long, int)}.
+   */
+  @FunctionalInterface
+  private interface UserPages {
+
+    List<UserSummary> get(Long after, int limit);
+  }
+
+  /**
+   * Typeahead search: the first users whose username starts with the prefix,
+   * case-insensitively and in alphabetical order. Answered from the
+   * UsernameIndex, without a database query.
+   */
+  @GetMapping(SEARCH_PATH)
+  @ResponseBody
+  public List<UserSearchResultDTO> searchUsers(
+      @RequestParam("prefix") String prefix,
+      @RequestParam(value = "limit", required = false) Integer limit) {
+    List<UsernameIndex.Match> matches = userService.searchUsernames(prefix,
+        limit == null ? DEFAULT_SEARCH_RESULTS : limit);
+    return DTOMapper.INSTANCE.convertUsernameMatchesToDTO(matches);
+  }
+
+  /**
+   * Number of users that are logged in, from the PresenceRegistry.
+   */
+  @GetMapping(ONLINE_COUNT_PATH)
+  @ResponseBody
+  public int getOnlineCount() {
+    return userService.getOnlineCount();
+  }
+
+  /**
+   * Server-sent events for every login, logout and username change from now
+   * on, see {@link ch.uzh.ifi.hase.soprafs22.service.PresenceEvent}. Clients
+   * load the current state once through GET /users and then apply the events.
+   */
+  @GetMapping(value = PRESENCE_STREAM_PATH, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamPresence() {
+    return presenceBroadcaster.subscribe();
   }
 
     @PutMapping("/users/login")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public UserGetDTO loginUser(@RequestBody UserPostDTO userPostDTO) {
+    public UserGetDTO loginUser(@RequestBody UserPostDTO userPostDTO, HttpServletRequest request) {
 
+        loginThrottle.check(request.getRemoteAddr(), userPostDTO.getUsername());
         User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
         User loggedInUser = userService.loginUser(userInput);
         return DTOMapper.INSTANCE.convertEntityToUserGetDTO(loggedInUser);
@@ -98,7 +431,66 @@ public class UserController {
     return DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser);
   }
 
-    @PutMapping("/users/{Id}")
+  /**
+   * Creates many users at once. Every chunk of
+   * {@link UserService#MAX_BATCH_SIZE} users is created in its own transaction,
+   * users that cannot be created are reported with their index in the request.
+   */
+  @PostMapping(value = "/users/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+  @ResponseStatus(HttpStatus.CREATED)
+  @ResponseBody
+  public UserBatchResultDTO createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+    UserBatchResult result = new UserBatchResult();
+    for (int start = 0; start < userPostDTOs.size(); start += UserService.MAX_BATCH_SIZE) {
+      List<UserPostDTO> chunk = userPostDTOs.subList(start,
+          Math.min(userPostDTOs.size(), start + UserService.MAX_BATCH_SIZE));
+      result.append(createUserChunk(chunk), start);
+    }
+    return DTOMapper.INSTANCE.convertUserBatchResultToDTO(result);
+  }
+
+  /**
+   * Same as {@link #createUsers(List)} for a newline delimited JSON stream of
+   * users, which is consumed chunk by chunk instead of being read into memory
+   * as a whole.
+   */
+  @PostMapping(value = "/users/batch", consumes = NDJSON_VALUE)
+  @ResponseStatus(HttpStatus.CREATED)
+  @ResponseBody
+  public UserBatchResultDTO createUsersFromStream(InputStream body) throws IOException {
+    UserBatchResult result = new UserBatchResult();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    List<UserPostDTO> chunk = new ArrayList<>(UserService.MAX_BATCH_SIZE);
+    int chunkStart = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.isBlank()) {
+        continue;
+      }
+      chunk.add(objectMapper.readValue(line, UserPostDTO.class));
+      if (chunk.size() == UserService.MAX_BATCH_SIZE) {
+        result.append(createUserChunk(chunk), chunkStart);
+        chunkStart += chunk.size();
+        chunk.clear();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      result.append(createUserChunk(chunk), chunkStart);
+    }
+    return DTOMapper.INSTANCE.convertUserBatchResultToDTO(result);
+  }
+
+  private UserBatchResult createUserChunk(List<UserPostDTO> userPostDTOs) {
+    // convert API users to internal representation
+    List<User> users = new ArrayList<>(userPostDTOs.size());
+    for (UserPostDTO userPostDTO : userPostDTOs) {
+      users.add(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+    }
+    return userService.createUsers(users);
+  }
+
+    // fields left out of the body are kept, so PUT has always behaved like PATCH
+    @RequestMapping(value = "/users/{Id}", method = { RequestMethod.PUT, RequestMethod.PATCH })
     @ResponseStatus(HttpStatus.NO_CONTENT)
     @ResponseBody
     public void updateUser(@RequestBody User user) {
@@ -119,4 +511,79 @@ public class UserController {
         userService.updateUserBday(user);
     }
 
+  /**
+   * Same as {@link #getUserById(Long, WebRequest)}, but the user is loaded on
+   * the AsyncRequestExecutor instead of the request thread.
+   */
+  @GetMapping(ASYNC_PATH_PREFIX + "/users/{Id}")
+  @ResponseBody
+  public CompletableFuture<UserGetDTO> getUserByIdAsync(@PathVariable("Id") Long Id, WebRequest webRequest) {
+    if (checkNotModified(webRequest, userVersionTracker.getUserETag(Id),
+        userVersionTracker.getUserLastModified(Id))) {
+      return null;
+    }
+    return asyncRequestExecutor.submit(
+        () -> DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(userService.getUserSummaryById(Id)));
+  }
+
+  /**
+   * Same parameters as {@link #getAllUsers}, but the users are loaded on the
+   * AsyncRequestExecutor and always as a single page of at most limit users,
+   * {@link #USER_CHUNK_SIZE} by default. Streaming the whole table would keep a
+   * pool thread busy for as long as the client takes to read it. As there,
+   * the limit is required unless sorted by id.
+   */
+  @GetMapping(ASYNC_PATH_PREFIX + "/users")
+  public CompletableFuture<ResponseEntity<List<UserGetDTO>>> getAllUsersAsync(
+      @RequestParam(value = "after", required = false) Long after,
+      @RequestParam(value = "limit", required = false) Integer limit,
+      @RequestParam(value = "online", required = false) Boolean online,
+      @RequestParam(value = "username_prefix", required = false) String usernamePrefix,
+      @RequestParam(value = "logged_in", required = false) Boolean loggedIn,
+      @RequestParam(value = "created_from", required = false)
+      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date createdFrom,
+      @RequestParam(value = "created_to", required = false)
+      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date createdTo,
+      @RequestParam(value = "birthday_from", required = false)
+      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date birthdayFrom,
+      @RequestParam(value = "birthday_to", required = false)
+      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date birthdayTo,
+      @RequestParam(value = "sort", required = false) String sort,
+      WebRequest webRequest) {
+    int pageSize = limit == null ? USER_CHUNK_SIZE : limit;
+    UserFilter filter = userFilter(usernamePrefix, loggedIn, createdFrom, createdTo, birthdayFrom, birthdayTo);
+    UserPages pages = userPages(online, filter, sort, limit);
+    if (checkNotModified(webRequest, userVersionTracker.getCollectionETag(),
+        userVersionTracker.getCollectionLastModified())) {
+      return null;
+    }
+    return asyncRequestExecutor.submit(() -> {
+      List<UserSummary> page = pages.get(after, pageSize);
+      List<UserGetDTO> users = new ArrayList<>(page.size());
+      for (UserSummary user : page) {
+        users.add(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user));
+      }
+      ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+      if (page.size() == pageSize && sortedById(sort)) {
+        response.header(NEXT_CURSOR_HEADER, String.valueOf(page.get(page.size() - 1).getId()));
+      }
+      return response.body(users);
+    });
+  }
+
+  /**
+   * Same as {@link #loginUser(UserPostDTO, HttpServletRequest)}, but the
+   * credentials are checked on the AsyncRequestExecutor. Throttled attempts
+   * are rejected before they take a place in its queue.
+   */
+  @PutMapping(ASYNC_PATH_PREFIX + "/users/login")
+  @ResponseBody
+  public CompletableFuture<UserGetDTO> loginUserAsync(@RequestBody UserPostDTO userPostDTO,
+                                                      HttpServletRequest request) {
+    loginThrottle.check(request.getRemoteAddr(), userPostDTO.getUsername());
+    User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+    return asyncRequestExecutor.submit(
+        () -> DTOMapper.INSTANCE.convertEntityToUserGetDTO(userService.loginUser(userInput)));
+  }
+
 }
@@ -0,0 +1,190 @@
+package ch.uzh.ifi.hase.soprafs22.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * User Listing Cache
+ * Keeps the complete user listing (GET /users without a limit) gzip-compressed
+ * in memory, for the collection version it was written at. As long as no user
+ * changes, clients accepting gzip get the same bytes without a database query
+ * or compressing them again. Only the latest version is kept.
+ * Once the compressed listing grows beyond the maximum size caching is given
+ * up: from then on every request compresses the listing while streaming it,
+ * without buffering it or waiting for other requests.
+ */
+@Component
+public class UserListingCache {
+
+  private static final int GZIP_BUFFER_BYTES = 8192;
+
+  private final Logger log = LoggerFactory.getLogger(UserListingCache.class);
+
+  private final boolean enabled;
+
+  private final int maxBytes;
+
+  // a lock instead of a monitor, virtual threads waiting on it do not pin their carrier
+  private final ReentrantLock rebuildLock = new ReentrantLock();
+
+  private volatile Listing listing;
+
+  private volatile boolean tooLarge;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  @Autowired
+  public UserListingCache(@Value("${user.listing.gzip-cache.enabled:true}") boolean enabled,
+                          @Value("${user.listing.gzip-cache.max-bytes:33554432}") int maxBytes) {
+    this.enabled = enabled;
+    this.maxBytes = maxBytes;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Writes the gzip-compressed listing to the output stream.
+   *
+   * @param eTag         collection ETag taken before the listing is written, so
+   *                     that the listing is never older than its version
+   * @param outputStream receives the compressed listing
+   * @param writer       writes the uncompressed listing if it is not cached,
+   *                     only one at a time, concurrent requests wait for it
+   */
+  public void writeGzip(String eTag, OutputStream outputStream, ListingWriter writer) throws IOException {
+    byte[] cached = cached(eTag);
+    if (cached == null && !tooLarge) {
+      rebuildLock.lock();
+      try {
+        cached = tooLarge ? null : cachedOrRebuilt(eTag, writer);
+      }
+      finally {
+        rebuildLock.unlock();
+      }
+    }
+    if (cached != null) {
+      outputStream.write(cached);
+      return;
+    }
+    misses.incrementAndGet();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(outputStream, GZIP_BUFFER_BYTES)) {
+      writer.write(gzip);
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public int getSizeBytes() {
+    Listing current = listing;
+    return current == null ? 0 : current.gzip.length;
+  }
+
+  private byte[] cached(String eTag) {
+    Listing current = listing;
+    if (current != null && current.eTag.equals(eTag)) {
+      hits.incrementAndGet();
+      return current.gzip;
+    }
+    return null;
+  }
+
+  /**
+   * @return the compressed listing, null if it is larger than the maximum size
+   */
+  private byte[] cachedOrRebuilt(String eTag, ListingWriter writer) throws IOException {
+    byte[] cached = cached(eTag);
+    if (cached != null) {
+      return cached;
+    }
+    BoundedBuffer bytes = new BoundedBuffer(maxBytes);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(bytes, GZIP_BUFFER_BYTES)) {
+      writer.write(gzip);
+    }
+    catch (ListingTooLargeException e) {
+      log.info("Compressed user listing exceeds {} bytes, it is no longer cached", maxBytes);
+      listing = null;
+      tooLarge = true;
+      return null;
+    }
+    misses.incrementAndGet();
+    byte[] compressed = bytes.toByteArray();
+    listing = new Listing(eTag, compressed);
+    return compressed;
+  }
+
+  @FunctionalInterface
+  public interface ListingWriter {
+
+    void write(OutputStream outputStream) throws IOException;
+  }
+
+  private static final class Listing {
+
+    private final String eTag;
+
+    private final byte[] gzip;
+
+    Listing(String eTag, byte[] gzip) {
+      this.eTag = eTag;
+      this.gzip = gzip;
+    }
+  }
+
+  /**
+   * Fails as soon as more than the maximum size is written, instead of
+   * buffering a listing that is not going to be kept.
+   */
+  private static final class BoundedBuffer extends ByteArrayOutputStream {
+
+    private final int maxBytes;
+
+    BoundedBuffer(int maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      checkSize(1);
+      super.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      checkSize(len);
+      super.write(b, off, len);
+    }
+
+    private void checkSize(int len) {
+      if (count + len > maxBytes) {
+        throw new ListingTooLargeException();
+      }
+    }
+  }
+
+  private static final class ListingTooLargeException extends RuntimeException {
+
+    ListingTooLargeException() {
+      super(null, null, false, false);
+    }
+  }
+}
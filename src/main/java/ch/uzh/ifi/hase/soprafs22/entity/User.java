@@ -1,10 +1,14 @@
 package ch.uzh.ifi.hase.soprafs22.entity;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.repository.SecondLevelCacheConfig;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.io.Serializable;
 import java.util.Date;
+import java.util.Locale;
 
 /**
  * Internal User Representation
@@ -15,30 +19,46 @@ import java.util.Date;
  * - nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unqiue across the database -> composes
  * the primary key
+ * Users are kept in the second-level cache, see SecondLevelCacheConfig
  */
 @Entity
-@Table(name = "USER")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = SecondLevelCacheConfig.USER_REGION)
+@Table(name = "\"USER\"", indexes = {
+    @Index(name = "user_username_key_idx", columnList = "username_key"),
+    @Index(name = "user_creation_date_idx", columnList = "creation_date"),
+    @Index(name = "user_birthday_idx", columnList = "birthday") })
 public class User implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  // ids are reserved in blocks so that inserts can be batched without fetching
+  // the next sequence value for every single user
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_sequence")
+  @SequenceGenerator(name = "user_sequence", sequenceName = "user_sequence", allocationSize = 50)
   private Long id;
 
   @Column(nullable = false)
   private String password;
 
+  // the unique constraint is the authoritative uniqueness check, see UserService
   @Column(nullable = false, unique = true)
   private String username;
 
+  // lower case username for case-insensitive lookups, kept in sync on every
+  // insert and update
+  @Column(nullable = false)
+  private String username_key;
+
   @Column(nullable = false, unique = true)
   private String token;
 
   @Column(nullable = false)
   private Date creation_date = new Date();
 
-  @Column(nullable = false)
+  // only written through UserRepository.updateLoggedIn, see PresenceWriteBehind
+  @Column(nullable = false, updatable = false)
   private boolean logged_in;
 
   @Column(nullable = true)
@@ -71,6 +91,23 @@ public class User implements Serializable {
     this.username = username;
   }
 
+  public String getusername_key() {
+    return username_key;
+  }
+
+  @PrePersist
+  @PreUpdate
+  void updateUsernameKey() {
+    this.username_key = usernameKey(username);
+  }
+
+  /**
+   * @return the value of the case-insensitive username column for the username
+   */
+  public static String usernameKey(String username) {
+    return username == null ? null : username.toLowerCase(Locale.ROOT);
+  }
+
   public String getToken() {
     return token;
   }
@@ -1,7 +1,10 @@
 package ch.uzh.ifi.hase.soprafs22.exceptions;
 
+import ch.uzh.ifi.hase.soprafs22.repository.ConstraintViolations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -27,6 +30,18 @@ public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
     return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.CONFLICT, request);
   }
 
+  /**
+   * Unique and other constraints are only checked by the database, a
+   * violation means the request conflicts with the stored data.
+   */
+  @ExceptionHandler(DataIntegrityViolationException.class)
+  protected ResponseEntity<Object> handleDataIntegrityViolation(DataIntegrityViolationException ex,
+                                                                WebRequest request) {
+    log.warn("Constraint violated: {}", NestedExceptionUtils.getMostSpecificCause(ex).getMessage());
+    String bodyOfResponse = ConstraintViolations.isUniqueViolation(ex) ? "Value is not unique" : "Constraint violated";
+    return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.CONFLICT, request);
+  }
+
   @ExceptionHandler(TransactionSystemException.class)
   public ResponseStatusException handleTransactionSystemException(Exception ex, HttpServletRequest request) {
     log.error("Request: {} raised {}", request.getRequestURL(), ex);
@@ -0,0 +1,30 @@
+package ch.uzh.ifi.hase.soprafs22.exceptions;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * 429 Too Many Requests, tells the client with Retry-After how many seconds
+ * to wait before trying again.
+ */
+public class TooManyRequestsException extends ResponseStatusException {
+
+  private final long retryAfterSeconds;
+
+  public TooManyRequestsException(String reason, long retryAfterSeconds) {
+    super(HttpStatus.TOO_MANY_REQUESTS, reason);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  @Override
+  public HttpHeaders getResponseHeaders() {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+    return headers;
+  }
+}
@@ -0,0 +1,125 @@
+package ch.uzh.ifi.hase.soprafs22.execution;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Async Request Executor
+ * Runs the database work of the asynchronous endpoints (/async/users...) on a
+ * dedicated pool, so the request thread is handed back to Tomcat as soon as the
+ * work is queued. By default the pool has one thread per database connection,
+ * more threads would only wait for a connection in Hikari.
+ * The queue is bounded: when it is full the request fails fast with 503. Every
+ * request has a deadline counted from the moment it is queued, a request still
+ * queued or running at its deadline fails with 503. A queued request is then
+ * dropped, a running one is left to finish: interrupting a thread inside
+ * JDBC can break its pooled connection, or an H2 database file.
+ */
+@Component
+public class AsyncRequestExecutor {
+
+  private final long timeoutMillis;
+
+  private final ThreadPoolExecutor executor;
+
+  private final ScheduledThreadPoolExecutor timer;
+
+  private final LongAdder rejectedCount = new LongAdder();
+
+  private final LongAdder timeoutCount = new LongAdder();
+
+  @Autowired
+  public AsyncRequestExecutor(@Value("${execution.async.threads:0}") int threads,
+                              @Value("${spring.datasource.hikari.maximum-pool-size:10}") int maximumPoolSize,
+                              @Value("${execution.async.queue-capacity:100}") int queueCapacity,
+                              @Value("${execution.async.timeout-ms:3000}") long timeoutMillis) {
+    int poolSize = threads > 0 ? threads : maximumPoolSize;
+    this.timeoutMillis = timeoutMillis;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+          Thread thread = new Thread(runnable, "async-request-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "async-request-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // completed requests take their deadline out of the timer's queue
+    this.timer.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * @return the result of the task, or a ResponseStatusException if it failed
+   *         with one or 503 if it missed its deadline
+   * @throws ResponseStatusException 503 if the queue is full
+   */
+  public <T> CompletableFuture<T> submit(Supplier<T> task) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Future<?> execution;
+    try {
+      execution = executor.submit(() -> {
+        try {
+          result.complete(task.get());
+        }
+        catch (Throwable e) {
+          result.completeExceptionally(e);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      rejectedCount.increment();
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server is busy");
+    }
+    ScheduledFuture<?> deadline = timer.schedule(() -> {
+      if (result.completeExceptionally(
+          new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Request timed out"))) {
+        timeoutCount.increment();
+        // only takes effect while the task is still queued
+        execution.cancel(false);
+      }
+    }, timeoutMillis, TimeUnit.MILLISECONDS);
+    result.whenComplete((value, e) -> deadline.cancel(false));
+    return result;
+  }
+
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+
+  public long getTimeoutCount() {
+    return timeoutCount.sum();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    timer.shutdownNow();
+    executor.shutdown();
+  }
+}
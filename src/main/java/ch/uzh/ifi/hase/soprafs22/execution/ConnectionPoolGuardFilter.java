@@ -0,0 +1,121 @@
+package ch.uzh.ifi.hase.soprafs22.execution;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connection Pool Guard Filter
+ * Limits the number of requests that are processed at the same time to a
+ * multiple of the database connection pool size. Requests that do not get a
+ * permit within the acquire timeout are rejected with 503 right away instead of
+ * queueing up in Hikari until its connection timeout expires.
+ * Excluded paths, like long-lived streams that do not use the database, are
+ * passed through without a permit.
+ * The permit of an asynchronous request, e.g. a streamed user listing whose
+ * body is written on another thread, is held until the request completes.
+ */
+public class ConnectionPoolGuardFilter extends OncePerRequestFilter {
+
+  private final Semaphore permits;
+
+  private final long acquireTimeoutMillis;
+
+  private final Set<String> excludedPaths;
+
+  private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+  public ConnectionPoolGuardFilter(int permits, long acquireTimeoutMillis, Set<String> excludedPaths) {
+    this.permits = new Semaphore(permits);
+    this.acquireTimeoutMillis = acquireTimeoutMillis;
+    this.excludedPaths = excludedPaths;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return excludedPaths.contains(urlPathHelper.getPathWithinApplication(request));
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    boolean acquired;
+    try {
+      acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      acquired = false;
+    }
+    if (!acquired) {
+      response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+      response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Server is busy");
+      return;
+    }
+    boolean async = false;
+    try {
+      filterChain.doFilter(request, response);
+      if (request.isAsyncStarted()) {
+        request.getAsyncContext().addListener(new ReleaseOnCompletion());
+        async = true;
+      }
+    }
+    finally {
+      if (!async) {
+        permits.release();
+      }
+    }
+  }
+
+  public int getAvailablePermits() {
+    return permits.availablePermits();
+  }
+
+  /**
+   * Releases the permit once, whichever way the asynchronous request ends.
+   */
+  private final class ReleaseOnCompletion implements AsyncListener {
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      release();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      release();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      release();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // restarting asynchronous processing removes the listeners
+      event.getAsyncContext().addListener(this);
+    }
+
+    private void release() {
+      if (released.compareAndSet(false, true)) {
+        permits.release();
+      }
+    }
+  }
+}
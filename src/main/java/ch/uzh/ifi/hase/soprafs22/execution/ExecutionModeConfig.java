@@ -0,0 +1,66 @@
+package ch.uzh.ifi.hase.soprafs22.execution;
+
+import ch.uzh.ifi.hase.soprafs22.controller.UserController;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+/**
+ * Execution Mode Config
+ * With execution.virtual-threads=true every request, and every asynchronous
+ * response such as the streamed user list, runs on its own virtual thread
+ * instead of Tomcat's fixed pool of platform threads. A thread blocked on the
+ * database then no longer keeps other requests from being accepted.
+ * Since the number of concurrent requests is no longer capped by the thread
+ * pool, the ConnectionPoolGuardFilter caps the number of requests waiting for a
+ * database connection instead.
+ */
+@Configuration
+@ConditionalOnProperty(name = "execution.virtual-threads", havingValue = "true")
+public class ExecutionModeConfig {
+
+  private final Logger log = LoggerFactory.getLogger(ExecutionModeConfig.class);
+
+  @Bean
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+    log.info("Handling requests on virtual threads");
+    return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+  }
+
+  @Bean(name = { TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME, "taskExecutor" })
+  public AsyncTaskExecutor applicationTaskExecutor() {
+    return new TaskExecutorAdapter(Executors.newVirtualThreadPerTaskExecutor());
+  }
+
+  @Bean
+  public FilterRegistrationBean<ConnectionPoolGuardFilter> connectionPoolGuardFilter(
+      @Value("${spring.datasource.hikari.maximum-pool-size:10}") int maximumPoolSize,
+      @Value("${execution.connection-guard.requests-per-connection:4}") int requestsPerConnection,
+      @Value("${execution.connection-guard.acquire-timeout-ms:1000}") long acquireTimeoutMillis,
+      MeterRegistry meterRegistry) {
+    int permits = maximumPoolSize * requestsPerConnection;
+    log.info("Allowing {} concurrent requests for {} database connections", permits, maximumPoolSize);
+    ConnectionPoolGuardFilter filter = new ConnectionPoolGuardFilter(permits, acquireTimeoutMillis,
+        // the presence stream holds its request open but no connection, the
+        // online count and the username search are answered from memory
+        Set.of(UserController.PRESENCE_STREAM_PATH, UserController.ONLINE_COUNT_PATH, UserController.SEARCH_PATH));
+    Gauge.builder("execution.connection-guard.available", filter, ConnectionPoolGuardFilter::getAvailablePermits)
+        .register(meterRegistry);
+    FilterRegistrationBean<ConnectionPoolGuardFilter> registration = new FilterRegistrationBean<>(filter);
+    registration.addUrlPatterns("/users", "/users/*");
+    return registration;
+  }
+}
@@ -0,0 +1,117 @@
+package ch.uzh.ifi.hase.soprafs22.metrics;
+
+import ch.uzh.ifi.hase.soprafs22.controller.UserListingCache;
+import ch.uzh.ifi.hase.soprafs22.execution.AsyncRequestExecutor;
+import ch.uzh.ifi.hase.soprafs22.security.LoginThrottle;
+import ch.uzh.ifi.hase.soprafs22.service.PasswordHasher;
+import ch.uzh.ifi.hase.soprafs22.service.PresenceBroadcaster;
+import ch.uzh.ifi.hase.soprafs22.service.PresenceRegistry;
+import ch.uzh.ifi.hase.soprafs22.service.PresenceWriteBehind;
+import ch.uzh.ifi.hase.soprafs22.service.UserVersionTracker;
+import ch.uzh.ifi.hase.soprafs22.service.UsernameIndex;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Metrics Config
+ * Instruments the user operations for the Prometheus scrape endpoint
+ * (/actuator/prometheus):
+ * - user.service: latency histogram per UserService operation, see @Timed
+ * - user.repository.calls, user.repository.calls.per.request and
+ *   user.sql.statements.per.request, see QueryCountInterceptor
+ * - user.errors: ResponseStatusExceptions by status
+ * - gauges and counters of the in-process components below
+ * The connection pool is instrumented by Spring Boot (hikaricp.*).
+ */
+@Configuration
+public class MetricsConfig {
+
+  @Bean
+  public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+    return new TimedAspect(meterRegistry);
+  }
+
+  @Bean
+  public RepositoryCallCounter repositoryCallCounter(MeterRegistry meterRegistry) {
+    return new RepositoryCallCounter(meterRegistry);
+  }
+
+  @Bean
+  public WebMvcConfigurer queryCountInterceptorConfigurer(
+      MeterRegistry meterRegistry,
+      @Value("${user.sql.statement-warn-threshold:10}") int statementWarnThreshold) {
+    return new WebMvcConfigurer() {
+      @Override
+      public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new QueryCountInterceptor(meterRegistry, statementWarnThreshold));
+      }
+    };
+  }
+
+  @Bean
+  public ResponseStatusErrorCounter responseStatusErrorCounter(MeterRegistry meterRegistry) {
+    return new ResponseStatusErrorCounter(meterRegistry);
+  }
+
+  @Bean
+  public MeterBinder userComponentMetrics(PasswordHasher passwordHasher,
+                                          PresenceWriteBehind presenceWriteBehind,
+                                          PresenceBroadcaster presenceBroadcaster,
+                                          PresenceRegistry presenceRegistry,
+                                          UserVersionTracker userVersionTracker,
+                                          LoginThrottle loginThrottle,
+                                          UserListingCache userListingCache,
+                                          UsernameIndex usernameIndex,
+                                          AsyncRequestExecutor asyncRequestExecutor) {
+    return registry -> {
+      Gauge.builder("user.password.queue", passwordHasher, PasswordHasher::getQueueDepth).register(registry);
+      Gauge.builder("user.password.active", passwordHasher, PasswordHasher::getActiveCount).register(registry);
+
+      Gauge.builder("user.presence.pending", presenceWriteBehind, PresenceWriteBehind::getPendingCount)
+          .register(registry);
+      Gauge.builder("user.presence.subscribers", presenceBroadcaster, PresenceBroadcaster::getSubscriberCount)
+          .register(registry);
+      FunctionCounter.builder("user.presence.dropped", presenceBroadcaster,
+          PresenceBroadcaster::getDroppedSubscriberCount).register(registry);
+      Gauge.builder("user.presence.online", presenceRegistry, PresenceRegistry::getOnlineCount).register(registry);
+
+      // not modified / conditional gives the share of polls answered with 304
+      FunctionCounter.builder("user.conditional.requests", userVersionTracker,
+          UserVersionTracker::getConditionalRequestCount).register(registry);
+      FunctionCounter.builder("user.conditional.not.modified", userVersionTracker,
+          UserVersionTracker::getNotModifiedCount).register(registry);
+
+      FunctionCounter.builder("user.login.throttled", loginThrottle, LoginThrottle::getRejectedCount)
+          .register(registry);
+      Gauge.builder("user.login.buckets", loginThrottle, LoginThrottle::getBucketCount).register(registry);
+
+      FunctionCounter.builder("user.listing.cache.hits", userListingCache, UserListingCache::getHitCount)
+          .register(registry);
+      FunctionCounter.builder("user.listing.cache.misses", userListingCache, UserListingCache::getMissCount)
+          .register(registry);
+      Gauge.builder("user.listing.cache.size", userListingCache, UserListingCache::getSizeBytes)
+          .baseUnit("bytes").register(registry);
+
+      Gauge.builder("user.search.index.entries", usernameIndex, UsernameIndex::size).register(registry);
+      Gauge.builder("user.search.index.size", usernameIndex, UsernameIndex::getEstimatedBytes)
+          .baseUnit("bytes").register(registry);
+
+      Gauge.builder("execution.async.queue", asyncRequestExecutor, AsyncRequestExecutor::getQueueDepth)
+          .register(registry);
+      Gauge.builder("execution.async.active", asyncRequestExecutor, AsyncRequestExecutor::getActiveCount)
+          .register(registry);
+      FunctionCounter.builder("execution.async.rejected", asyncRequestExecutor,
+          AsyncRequestExecutor::getRejectedCount).register(registry);
+      FunctionCounter.builder("execution.async.timeouts", asyncRequestExecutor,
+          AsyncRequestExecutor::getTimeoutCount).register(registry);
+    };
+  }
+}
@@ -0,0 +1,68 @@
+package ch.uzh.ifi.hase.soprafs22.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records the number of repository calls and SQL statements each handled
+ * request made (user.repository.calls.per.request and
+ * user.sql.statements.per.request, tagged with the handler method), so an
+ * endpoint that suddenly issues more queries stands out. The statement count
+ * is logged per request, as a warning once it exceeds the threshold. Calls made
+ * after the request went asynchronous, e.g. while streaming GET /users, are not
+ * included.
+ */
+public class QueryCountInterceptor implements HandlerInterceptor {
+
+  private final Logger log = LoggerFactory.getLogger(QueryCountInterceptor.class);
+
+  private final MeterRegistry meterRegistry;
+
+  private final int statementWarnThreshold;
+
+  public QueryCountInterceptor(MeterRegistry meterRegistry, int statementWarnThreshold) {
+    this.meterRegistry = meterRegistry;
+    this.statementWarnThreshold = statementWarnThreshold;
+  }
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+    RepositoryCallCounter.resetRequestCalls();
+    SqlStatementCounter.reset();
+    return true;
+  }
+
+  @Override
+  public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                              Exception ex) {
+    if (!(handler instanceof HandlerMethod)) {
+      return;
+    }
+    String handlerName = ((HandlerMethod) handler).getMethod().getName();
+    int calls = RepositoryCallCounter.getRequestCalls();
+    int statements = SqlStatementCounter.getCount();
+    DistributionSummary.builder("user.repository.calls.per.request")
+        .tag("handler", handlerName)
+        .register(meterRegistry)
+        .record(calls);
+    DistributionSummary.builder("user.sql.statements.per.request")
+        .tag("handler", handlerName)
+        .register(meterRegistry)
+        .record(statements);
+    if (statements > statementWarnThreshold) {
+      log.warn("{} {} ({}) executed {} SQL statements", request.getMethod(), request.getRequestURI(),
+          handlerName, statements);
+    }
+    else {
+      log.debug("{} {} ({}) executed {} SQL statements", request.getMethod(), request.getRequestURI(),
+          handlerName, statements);
+    }
+  }
+}
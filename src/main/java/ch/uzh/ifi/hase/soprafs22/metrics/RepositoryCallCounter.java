@@ -0,0 +1,47 @@
+package ch.uzh.ifi.hase.soprafs22.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * Repository Call Counter
+ * Counts every call of a UserRepository method, in total per method
+ * (user.repository.calls) and for the request that is currently handled on
+ * this thread, see {@link QueryCountInterceptor}.
+ */
+@Aspect
+public class RepositoryCallCounter {
+
+  private static final ThreadLocal<int[]> REQUEST_CALLS = ThreadLocal.withInitial(() -> new int[1]);
+
+  private final MeterRegistry meterRegistry;
+
+  public RepositoryCallCounter(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Around("this(ch.uzh.ifi.hase.soprafs22.repository.UserRepository)")
+  public Object count(ProceedingJoinPoint joinPoint) throws Throwable {
+    REQUEST_CALLS.get()[0]++;
+    Counter.builder("user.repository.calls")
+        .tag("method", joinPoint.getSignature().getName())
+        .register(meterRegistry)
+        .increment();
+    return joinPoint.proceed();
+  }
+
+  /**
+   * @return the number of repository calls on this thread since the last
+   *         reset
+   */
+  static int getRequestCalls() {
+    return REQUEST_CALLS.get()[0];
+  }
+
+  static void resetRequestCalls() {
+    REQUEST_CALLS.get()[0] = 0;
+  }
+}
@@ -0,0 +1,42 @@
+package ch.uzh.ifi.hase.soprafs22.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.Ordered;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Counts every ResponseStatusException by its status (user.errors) before it
+ * is handled as usual, the response is not changed.
+ */
+public class ResponseStatusErrorCounter implements HandlerExceptionResolver, Ordered {
+
+  private final MeterRegistry meterRegistry;
+
+  public ResponseStatusErrorCounter(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public ModelAndView resolveException(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                       Exception ex) {
+    if (ex instanceof ResponseStatusException) {
+      Counter.builder("user.errors")
+          .tag("status", String.valueOf(((ResponseStatusException) ex).getRawStatusCode()))
+          .register(meterRegistry)
+          .increment();
+    }
+    // let the other resolvers handle the exception
+    return null;
+  }
+
+  @Override
+  public int getOrder() {
+    return Ordered.HIGHEST_PRECEDENCE;
+  }
+}
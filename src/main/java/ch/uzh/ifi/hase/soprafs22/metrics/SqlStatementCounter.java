@@ -0,0 +1,36 @@
+package ch.uzh.ifi.hase.soprafs22.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * SQL Statement Counter
+ * Hibernate statement inspector that counts the SQL statements prepared on the
+ * current thread, registered through
+ * spring.jpa.properties.hibernate.session_factory.statement_inspector. A JDBC
+ * batch counts once, every other query or update once per execution.
+ * Hibernate creates the instance itself, so the count is kept in a static
+ * thread local and read through the static methods.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final ThreadLocal<int[]> STATEMENTS = ThreadLocal.withInitial(() -> new int[1]);
+
+  @Override
+  public String inspect(String sql) {
+    STATEMENTS.get()[0]++;
+    return sql;
+  }
+
+  /**
+   * @return the number of statements on this thread since the last reset
+   */
+  public static int getCount() {
+    return STATEMENTS.get()[0];
+  }
+
+  public static void reset() {
+    STATEMENTS.get()[0] = 0;
+  }
+}
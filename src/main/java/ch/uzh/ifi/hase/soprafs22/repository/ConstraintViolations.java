@@ -0,0 +1,53 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * Constraint Violations
+ * Tells which constraint of the user table rejected a write. The names are
+ * the ones of the Flyway migrations, H2 and PostgreSQL both report them in
+ * the message of the SQLException along with the standard SQL state.
+ */
+public final class ConstraintViolations {
+
+  public static final String USERNAME_UNIQUE = "user_username_unique";
+
+  public static final String TOKEN_UNIQUE = "user_token_unique";
+
+  private static final String UNIQUE_VIOLATION_SQL_STATE = "23505";
+
+  private ConstraintViolations() {
+  }
+
+  /**
+   * @return whether the exception was caused by any unique constraint
+   */
+  public static boolean isUniqueViolation(DataIntegrityViolationException ex) {
+    return uniqueViolation(ex) != null;
+  }
+
+  /**
+   * @param constraint e.g. {@link #USERNAME_UNIQUE}
+   * @return whether the exception was caused by this unique constraint
+   */
+  public static boolean isUniqueViolation(DataIntegrityViolationException ex, String constraint) {
+    SQLException violation = uniqueViolation(ex);
+    // H2 names the index of the constraint, e.g. USER_USERNAME_UNIQUE_INDEX_3
+    return violation != null && violation.getMessage() != null
+        && violation.getMessage().toLowerCase(Locale.ROOT).contains(constraint);
+  }
+
+  private static SQLException uniqueViolation(DataIntegrityViolationException ex) {
+    Throwable cause = ex;
+    while (cause != null) {
+      if (cause instanceof SQLException && UNIQUE_VIOLATION_SQL_STATE.equals(((SQLException) cause).getSQLState())) {
+        return (SQLException) cause;
+      }
+      cause = cause.getCause();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,64 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+
+import java.util.Date;
+
+/**
+ * UserSummary that is not backed by a query result, see
+ * {@link UserSummary#of(ch.uzh.ifi.hase.soprafs22.entity.User)}.
+ */
+final class DetachedUserSummary implements UserSummary {
+
+  private final Long id;
+
+  private final String username;
+
+  private final UserStatus status;
+
+  private final Date creation_date;
+
+  private final boolean logged_in;
+
+  private final Date birthday;
+
+  DetachedUserSummary(Long id, String username, UserStatus status, Date creation_date, boolean logged_in,
+                      Date birthday) {
+    this.id = id;
+    this.username = username;
+    this.status = status;
+    this.creation_date = creation_date;
+    this.logged_in = logged_in;
+    this.birthday = birthday;
+  }
+
+  @Override
+  public Long getId() {
+    return id;
+  }
+
+  @Override
+  public String getUsername() {
+    return username;
+  }
+
+  @Override
+  public UserStatus getStatus() {
+    return status;
+  }
+
+  @Override
+  public Date getcreation_date() {
+    return creation_date;
+  }
+
+  @Override
+  public boolean getlogged_in() {
+    return logged_in;
+  }
+
+  @Override
+  public Date getBirthday() {
+    return birthday;
+  }
+}
@@ -0,0 +1,69 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.expiry.ExpiryPolicy;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cache.spi.RegionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Second-Level Cache Config
+ * The Ehcache regions behind Hibernate's second-level cache (JCache):
+ * - {@value #USER_REGION}: User entities by id
+ * - the default query results region: ids found by the cacheable queries of
+ *   the UserRepository
+ * - the default update timestamps region: when each table was last written,
+ *   checked before a cached query result is used, so it never expires
+ * The entity and query regions are bounded and expire entries after the
+ * configured time to live. The cache manager is handed to Hibernate instead of
+ * being looked up by URI, so every application context gets its own regions.
+ */
+@Configuration
+public class SecondLevelCacheConfig {
+
+  public static final String USER_REGION = "user";
+
+  // one entry per table
+  private static final long TIMESTAMPS_MAX_ENTRIES = 100;
+
+  @Bean(destroyMethod = "close")
+  public CacheManager secondLevelCacheManager(
+      @Value("${user.second-level-cache.max-entries:10000}") long maxEntries,
+      @Value("${user.second-level-cache.query-max-entries:10000}") long queryMaxEntries,
+      @Value("${user.second-level-cache.ttl-ms:600000}") long ttlMillis) {
+    ExpiryPolicy<Object, Object> timeToLive = ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofMillis(ttlMillis));
+    org.ehcache.config.Configuration configuration = ConfigurationBuilder.newConfigurationBuilder()
+        .addCache(USER_REGION, region(maxEntries, timeToLive))
+        .addCache(RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME, region(queryMaxEntries, timeToLive))
+        .addCache(RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME,
+            region(TIMESTAMPS_MAX_ENTRIES, ExpiryPolicyBuilder.noExpiration()))
+        .build();
+    EhcacheCachingProvider provider =
+        (EhcacheCachingProvider) Caching.getCachingProvider(EhcacheCachingProvider.class.getName());
+    return provider.getCacheManager(URI.create("urn:user-second-level-cache:" + UUID.randomUUID()), configuration);
+  }
+
+  @Bean
+  public HibernatePropertiesCustomizer secondLevelCacheManagerCustomizer(CacheManager secondLevelCacheManager) {
+    return properties -> properties.put(ConfigSettings.CACHE_MANAGER, secondLevelCacheManager);
+  }
+
+  private static CacheConfiguration<Object, Object> region(long maxEntries, ExpiryPolicy<Object, Object> expiry) {
+    return CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+        ResourcePoolsBuilder.heap(maxEntries)).withExpiry(expiry).build();
+  }
+}
@@ -0,0 +1,81 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import java.util.Date;
+
+/**
+ * User Filter
+ * Criteria of GET /users, every criterion that is null matches all users.
+ * Ranges include their start and exclude their end. See
+ * {@link UserSpecifications#matching(UserFilter)} for the query.
+ */
+public class UserFilter {
+
+  private String usernamePrefix;
+
+  private Boolean loggedIn;
+
+  private Date createdFrom;
+
+  private Date createdTo;
+
+  private Date birthdayFrom;
+
+  private Date birthdayTo;
+
+  public String getUsernamePrefix() {
+    return usernamePrefix;
+  }
+
+  /**
+   * @param usernamePrefix matched case-insensitively, like usernames are
+   *                       unique
+   */
+  public void setUsernamePrefix(String usernamePrefix) {
+    this.usernamePrefix = usernamePrefix;
+  }
+
+  public Boolean getLoggedIn() {
+    return loggedIn;
+  }
+
+  public void setLoggedIn(Boolean loggedIn) {
+    this.loggedIn = loggedIn;
+  }
+
+  public Date getCreatedFrom() {
+    return createdFrom;
+  }
+
+  public void setCreatedFrom(Date createdFrom) {
+    this.createdFrom = createdFrom;
+  }
+
+  public Date getCreatedTo() {
+    return createdTo;
+  }
+
+  public void setCreatedTo(Date createdTo) {
+    this.createdTo = createdTo;
+  }
+
+  public Date getBirthdayFrom() {
+    return birthdayFrom;
+  }
+
+  public void setBirthdayFrom(Date birthdayFrom) {
+    this.birthdayFrom = birthdayFrom;
+  }
+
+  public Date getBirthdayTo() {
+    return birthdayTo;
+  }
+
+  public void setBirthdayTo(Date birthdayTo) {
+    this.birthdayTo = birthdayTo;
+  }
+
+  public boolean isEmpty() {
+    return usernamePrefix == null && loggedIn == null && createdFrom == null && createdTo == null
+        && birthdayFrom == null && birthdayTo == null;
+  }
+}
@@ -1,15 +1,67 @@
 package ch.uzh.ifi.hase.soprafs22.repository;
 
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+
 @Repository("userRepository")
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserSummaryQueries, UserUpdateQueries {
+
+  // derived queries cannot be used for the summaries, they would read the
+  // underscores in creation_date and logged_in as nested properties
+  String SUMMARY_COLUMNS = "u.id as id, u.username as username, u.status as status, "
+      + "u.creation_date as creation_date, u.logged_in as logged_in, u.birthday as birthday";
 
+  // the lookups by username and token go through the query cache, which holds
+  // the id of the user, the user itself comes from the second-level cache
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
   User findByUsername(String username);
 
   User findUserById(Long userId);
 
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
   User findByToken(String token);
+
+  /**
+   * Keyset page: the summaries of the users with an id strictly greater than
+   * the cursor, in id order, only selecting the columns of the
+   * {@link UserSummary}. The page size is taken from the pageable, its offset
+   * is ignored.
+   */
+  @Query("select " + SUMMARY_COLUMNS + " from User u where u.id > :id order by u.id")
+  List<UserSummary> findSummariesByIdGreaterThanOrderByIdAsc(@Param("id") Long id, Pageable pageable);
+
+  /**
+   * The summaries of the users with the given ids, in id order. Ids without a
+   * user are left out.
+   */
+  @Query("select " + SUMMARY_COLUMNS + " from User u where u.id in :ids order by u.id")
+  List<UserSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+
+  /**
+   * Keyset page of ids and usernames, only used to load the UsernameIndex on
+   * startup.
+   */
+  @Query("select u.id as id, u.username as username from User u where u.id > :id order by u.id")
+  List<UsernameEntry> findUsernamesByIdGreaterThan(@Param("id") Long id, Pageable pageable);
+
+  /**
+   * Scans the whole table, only used to load the PresenceRegistry on startup.
+   */
+  @Query("select u.id from User u where u.logged_in = true")
+  List<Long> findLoggedInIds();
+
+  /**
+   * @return the subset of the given usernames that is already taken
+   */
+  @Query("select u.username from User u where u.username in :usernames")
+  List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
 }
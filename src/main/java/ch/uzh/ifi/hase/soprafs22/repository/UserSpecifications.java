@@ -0,0 +1,96 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * User Specifications
+ * Query criteria on users for {@link UserSummaryQueries}. Every criterion is
+ * a range or prefix condition on an indexed column, see the migrations.
+ */
+public final class UserSpecifications {
+
+  /**
+   * Properties users can be sorted by, the others are not indexed.
+   */
+  public static final Set<String> SORTABLE_PROPERTIES = Set.of("id", "username", "creation_date", "birthday");
+
+  private static final char LIKE_ESCAPE = '\\';
+
+  private UserSpecifications() {
+  }
+
+  /**
+   * @return all criteria of the filter combined, without any for an empty
+   *         filter
+   */
+  public static Specification<User> matching(UserFilter filter) {
+    Specification<User> specification = Specification.where(null);
+    if (filter.getUsernamePrefix() != null) {
+      specification = specification.and(usernameStartsWith(filter.getUsernamePrefix()));
+    }
+    if (filter.getLoggedIn() != null) {
+      specification = specification.and(loggedIn(filter.getLoggedIn()));
+    }
+    if (filter.getCreatedFrom() != null || filter.getCreatedTo() != null) {
+      specification = specification.and(between("creation_date", filter.getCreatedFrom(), filter.getCreatedTo()));
+    }
+    if (filter.getBirthdayFrom() != null || filter.getBirthdayTo() != null) {
+      specification = specification.and(between("birthday", filter.getBirthdayFrom(), filter.getBirthdayTo()));
+    }
+    return specification;
+  }
+
+  /**
+   * Prefix match on the username key, which is indexed, instead of comparing
+   * lower(username).
+   */
+  public static Specification<User> usernameStartsWith(String prefix) {
+    String pattern = escapeLike(User.usernameKey(prefix)) + "%";
+    return (user, query, builder) -> builder.like(user.get("username_key"), pattern, LIKE_ESCAPE);
+  }
+
+  public static Specification<User> loggedIn(boolean loggedIn) {
+    return (user, query, builder) -> builder.equal(user.get("logged_in"), loggedIn);
+  }
+
+  public static Specification<User> idGreaterThan(long id) {
+    return (user, query, builder) -> builder.greaterThan(user.get("id"), id);
+  }
+
+  public static Specification<User> idLessThan(long id) {
+    return (user, query, builder) -> builder.lessThan(user.get("id"), id);
+  }
+
+  /**
+   * @param from inclusive, or null for no lower bound
+   * @param to   exclusive, or null for no upper bound
+   */
+  private static Specification<User> between(String property, Date from, Date to) {
+    return (user, query, builder) -> {
+      if (from == null) {
+        return builder.lessThan(user.get(property), to);
+      }
+      if (to == null) {
+        return builder.greaterThanOrEqualTo(user.get(property), from);
+      }
+      return builder.and(builder.greaterThanOrEqualTo(user.get(property), from),
+          builder.lessThan(user.get(property), to));
+    };
+  }
+
+  private static String escapeLike(String value) {
+    StringBuilder escaped = new StringBuilder(value.length() + 4);
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+        escaped.append(LIKE_ESCAPE);
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+}
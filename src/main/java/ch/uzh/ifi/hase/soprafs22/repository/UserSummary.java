@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+
+import java.util.Date;
+
+/**
+ * User Summary
+ * Read-only projection of the user with everything the API returns about a
+ * user, but without the password and the token. Repository methods returning
+ * it only select these columns and do not create managed entities.
+ * The User entity must not implement this interface, Spring Data would then
+ * load the whole entity instead of projecting.
+ */
+public interface UserSummary {
+
+  Long getId();
+
+  String getUsername();
+
+  UserStatus getStatus();
+
+  Date getcreation_date();
+
+  boolean getlogged_in();
+
+  Date getBirthday();
+
+  /**
+   * @return a summary holding the current values of the given user
+   */
+  static UserSummary of(User user) {
+    return new DetachedUserSummary(user.getId(), user.getUsername(), user.getStatus(),
+        user.getcreation_date(), user.getlogged_in(), user.getBirthday());
+  }
+
+  /**
+   * @return a copy of the summary with the given logged in state
+   */
+  static UserSummary withLoggedIn(UserSummary summary, boolean loggedIn) {
+    return new DetachedUserSummary(summary.getId(), summary.getUsername(), summary.getStatus(),
+        summary.getcreation_date(), loggedIn, summary.getBirthday());
+  }
+}
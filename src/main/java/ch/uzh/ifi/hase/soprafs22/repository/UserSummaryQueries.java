@@ -0,0 +1,31 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * Queries of the UserRepository that Spring Data cannot derive: Specifications
+ * of JpaSpecificationExecutor always load whole entities, these only select
+ * the columns of the {@link UserSummary}.
+ */
+public interface UserSummaryQueries {
+
+  /**
+   * @param specification criteria, e.g. from {@link UserSpecifications}, null
+   *                      for all users
+   * @param sort          properties of the User entity
+   * @param limit         maximum number of summaries
+   */
+  List<UserSummary> findSummaries(Specification<User> specification, Sort sort, int limit);
+
+  /**
+   * Taken from the user in the second-level cache without a query, otherwise
+   * only the summary columns are selected.
+   *
+   * @return null if there is no user with this id
+   */
+  UserSummary findSummaryById(Long id);
+}
@@ -0,0 +1,62 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Implementation of {@link UserSummaryQueries}, picked up by Spring Data for
+ * the UserRepository through its name.
+ */
+class UserSummaryQueriesImpl implements UserSummaryQueries {
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public List<UserSummary> findSummaries(Specification<User> specification, Sort sort, int limit) {
+    CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Tuple> query = builder.createTupleQuery();
+    Root<User> user = query.from(User.class);
+    query.multiselect(user.get("id"), user.get("username"), user.get("status"), user.get("creation_date"),
+        user.get("logged_in"), user.get("birthday"));
+    Predicate predicate = specification == null ? null : specification.toPredicate(user, query, builder);
+    if (predicate != null) {
+      query.where(predicate);
+    }
+    query.orderBy(QueryUtils.toOrders(sort, user, builder));
+
+    List<Tuple> rows = entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    List<UserSummary> summaries = new ArrayList<>(rows.size());
+    for (Tuple row : rows) {
+      summaries.add(new DetachedUserSummary(row.get(0, Long.class), row.get(1, String.class),
+          row.get(2, UserStatus.class), row.get(3, Date.class), row.get(4, Boolean.class), row.get(5, Date.class)));
+    }
+    return summaries;
+  }
+
+  @Override
+  public UserSummary findSummaryById(Long id) {
+    if (entityManager.getEntityManagerFactory().getCache().contains(User.class, id)) {
+      // loads the user from the database after all if it was evicted in between
+      User user = entityManager.find(User.class, id);
+      return user == null ? null : UserSummary.of(user);
+    }
+    List<UserSummary> summaries = findSummaries(
+        (user, query, builder) -> builder.equal(user.get("id"), id), Sort.unsorted(), 1);
+    return summaries.isEmpty() ? null : summaries.get(0);
+  }
+}
@@ -0,0 +1,36 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Targeted UPDATE statements of the UserRepository, which write single
+ * columns without loading the users.
+ * A JPQL bulk update would make Hibernate drop the whole User region of the
+ * second-level cache and every cached query on the user table. These only
+ * invalidate the cached users they change, and the cached queries only when
+ * a username changes, see {@link UserUpdateQueriesImpl}.
+ * They bypass @PreUpdate, callers pass the username key along with the
+ * username, see User#usernameKey.
+ */
+public interface UserUpdateQueries {
+
+  int updateLoggedIn(Collection<Long> ids, boolean loggedIn);
+
+  int updatePassword(Long id, String password);
+
+  /**
+   * Sets the username and birthday that are not null and keeps the others, a
+   * birthday can only be cleared through {@link #updateBirthday(Long, Date)}.
+   *
+   * @return the number of updated users, 0 if there is no user with this id
+   */
+  int updateProfile(Long id, String username, String usernameKey, Date birthday);
+
+  int updateUsername(Long id, String username, String usernameKey);
+
+  /**
+   * @param birthday null clears the birthday
+   */
+  int updateBirthday(Long id, Date birthday);
+}
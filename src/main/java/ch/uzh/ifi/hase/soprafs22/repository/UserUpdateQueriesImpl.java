@@ -0,0 +1,123 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.hibernate.cache.spi.TimestampsCache;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.BooleanType;
+import org.hibernate.type.LongType;
+import org.hibernate.type.StringType;
+import org.hibernate.type.TimestampType;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Implementation of {@link UserUpdateQueries}, picked up by Spring Data for
+ * the UserRepository through its name.
+ * The statements are native queries synchronized on an empty query space, so
+ * Hibernate leaves the second-level cache alone. Instead the cached users are
+ * soft locked like for an update of the entity: until the transaction is
+ * completed nobody reads them from the cache, and afterwards only
+ * transactions that started later put them back. A username change also
+ * invalidates the cached queries on the user table, the other columns are not
+ * used by any cacheable query.
+ */
+class UserUpdateQueriesImpl implements UserUpdateQueries {
+
+  // "user" is a reserved word, the table name is always quoted
+  private static final String TABLE = "\"user\"";
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public int updateLoggedIn(Collection<Long> ids, boolean loggedIn) {
+    return update("update " + TABLE + " set logged_in = :loggedIn where id in (:ids)", ids, false,
+        query -> query.setParameterList("ids", ids, LongType.INSTANCE)
+            .setParameter("loggedIn", loggedIn, BooleanType.INSTANCE));
+  }
+
+  @Override
+  public int updatePassword(Long id, String password) {
+    return update("update " + TABLE + " set password = :password where id = :id", List.of(id), false,
+        query -> query.setParameter("id", id, LongType.INSTANCE)
+            .setParameter("password", password, StringType.INSTANCE));
+  }
+
+  @Override
+  public int updateProfile(Long id, String username, String usernameKey, Date birthday) {
+    // typed parameters, PostgreSQL cannot infer the type of a null in coalesce
+    return update("update " + TABLE + " set username = coalesce(:username, username), "
+            + "username_key = coalesce(:usernameKey, username_key), "
+            + "birthday = coalesce(:birthday, birthday) where id = :id", List.of(id), username != null,
+        query -> query.setParameter("id", id, LongType.INSTANCE)
+            .setParameter("username", username, StringType.INSTANCE)
+            .setParameter("usernameKey", usernameKey, StringType.INSTANCE)
+            .setParameter("birthday", birthday, TimestampType.INSTANCE));
+  }
+
+  @Override
+  public int updateUsername(Long id, String username, String usernameKey) {
+    return update("update " + TABLE + " set username = :username, username_key = :usernameKey where id = :id",
+        List.of(id), true,
+        query -> query.setParameter("id", id, LongType.INSTANCE)
+            .setParameter("username", username, StringType.INSTANCE)
+            .setParameter("usernameKey", usernameKey, StringType.INSTANCE));
+  }
+
+  @Override
+  public int updateBirthday(Long id, Date birthday) {
+    return update("update " + TABLE + " set birthday = :birthday where id = :id", List.of(id), false,
+        query -> query.setParameter("id", id, LongType.INSTANCE)
+            .setParameter("birthday", birthday, TimestampType.INSTANCE));
+  }
+
+  private int update(String sql, Collection<Long> ids, boolean invalidatesQueries,
+                     Consumer<NativeQuery<?>> parameters) {
+    EventSource session = entityManager.unwrap(EventSource.class);
+    SessionFactoryImplementor factory = session.getFactory();
+    EntityPersister persister = factory.getMetamodel().entityPersister(User.class);
+
+    EntityDataAccess cacheAccess = persister.canWriteToCache() ? persister.getCacheAccessStrategy() : null;
+    List<Object> keys = new ArrayList<>(cacheAccess == null ? 0 : ids.size());
+    List<SoftLock> locks = new ArrayList<>(keys.size());
+    if (cacheAccess != null) {
+      for (Long id : ids) {
+        Object key = cacheAccess.generateCacheKey(id, persister, factory, session.getTenantIdentifier());
+        keys.add(key);
+        locks.add(cacheAccess.lockItem(session, key, null));
+      }
+    }
+    TimestampsCache timestamps = invalidatesQueries && factory.getSessionFactoryOptions().isQueryCacheEnabled()
+        ? factory.getCache().getTimestampsCache() : null;
+    Serializable[] querySpaces = persister.getQuerySpaces();
+    if (timestamps != null) {
+      timestamps.preInvalidate(querySpaces, session);
+    }
+    // registered up front, the locks are released even if the statement fails
+    session.getActionQueue().registerProcess((success, completedSession) -> {
+      for (int i = 0; i < keys.size(); i++) {
+        cacheAccess.unlockItem(completedSession, keys.get(i), locks.get(i));
+      }
+      if (timestamps != null) {
+        timestamps.invalidate(querySpaces, completedSession);
+      }
+    });
+
+    NativeQuery<?> query = session.createNativeQuery(sql);
+    query.addSynchronizedQuerySpace("");
+    parameters.accept(query);
+    return query.executeUpdate();
+  }
+}
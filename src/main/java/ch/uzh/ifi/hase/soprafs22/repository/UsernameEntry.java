@@ -0,0 +1,13 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+/**
+ * Username Entry
+ * Projection of the user to its id and username, see
+ * {@link UserRepository#findUsernamesByIdGreaterThan(Long, org.springframework.data.domain.Pageable)}.
+ */
+public interface UsernameEntry {
+
+  Long getId();
+
+  String getUsername();
+}
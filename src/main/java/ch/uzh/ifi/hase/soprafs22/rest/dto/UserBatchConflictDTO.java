@@ -0,0 +1,34 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+
+public class UserBatchConflictDTO {
+
+  private int index;
+
+  private String username;
+
+  private String reason;
+
+  public int getIndex() {
+    return index;
+  }
+
+  public void setIndex(int index) {
+    this.index = index;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+
+  public void setReason(String reason) {
+    this.reason = reason;
+  }
+}
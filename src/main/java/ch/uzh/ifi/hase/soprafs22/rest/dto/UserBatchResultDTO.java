@@ -0,0 +1,26 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+
+import java.util.List;
+
+public class UserBatchResultDTO {
+
+  private int created;
+
+  private List<UserBatchConflictDTO> conflicts;
+
+  public int getCreated() {
+    return created;
+  }
+
+  public void setCreated(int created) {
+    this.created = created;
+  }
+
+  public List<UserBatchConflictDTO> getConflicts() {
+    return conflicts;
+  }
+
+  public void setConflicts(List<UserBatchConflictDTO> conflicts) {
+    this.conflicts = conflicts;
+  }
+}
@@ -0,0 +1,24 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+
+public class UserSearchResultDTO {
+
+  private Long id;
+
+  private String username;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public void setUsername(String username) {
+    this.username = username;
+  }
+}
@@ -1,11 +1,19 @@
 package ch.uzh.ifi.hase.soprafs22.rest.mapper;
 
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserBatchConflictDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserBatchResultDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserSearchResultDTO;
+import ch.uzh.ifi.hase.soprafs22.service.UserBatchResult;
+import ch.uzh.ifi.hase.soprafs22.service.UsernameIndex;
 import org.mapstruct.*;
 import org.mapstruct.factory.Mappers;
 
+import java.util.List;
+
 /**
  * DTOMapper
  * This class is responsible for generating classes that will automatically
@@ -39,4 +47,14 @@ public interface DTOMapper {
 //  @Mapping(source = "creation_date", target = "creation_date")
   UserGetDTO convertEntityToUserGetDTO(User user);
 
+  UserGetDTO convertUserSummaryToUserGetDTO(UserSummary userSummary);
+
+  UserBatchResultDTO convertUserBatchResultToDTO(UserBatchResult userBatchResult);
+
+  UserBatchConflictDTO convertConflictToDTO(UserBatchResult.Conflict conflict);
+
+  UserSearchResultDTO convertUsernameMatchToDTO(UsernameIndex.Match match);
+
+  List<UserSearchResultDTO> convertUsernameMatchesToDTO(List<UsernameIndex.Match> matches);
+
 }
@@ -0,0 +1,95 @@
+package ch.uzh.ifi.hase.soprafs22.rest.mapper;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+/**
+ * UserJsonWriter
+ * Writes users as JSON straight from their summaries into the output, without
+ * creating a UserGetDTO per user and without looking up serializers by
+ * reflection. The output is byte for byte what the ObjectMapper writes for the
+ * corresponding UserGetDTO: same properties, same order, dates formatted with
+ * the date settings of the given ObjectMapper. Any property added to
+ * UserGetDTO has to be added here as well.
+ * A writer is meant for a single response and is not thread-safe.
+ */
+public class UserJsonWriter implements Closeable {
+
+  private static final SerializableString ID = new SerializedString("id");
+
+  private static final SerializableString USERNAME = new SerializedString("username");
+
+  private static final SerializableString CREATION_DATE = new SerializedString("creation_date");
+
+  private static final SerializableString LOGGED_IN = new SerializedString("logged_in");
+
+  private static final SerializableString BIRTHDAY = new SerializedString("birthday");
+
+  private final JsonGenerator generator;
+
+  private final SerializerProvider serializerProvider;
+
+  public UserJsonWriter(ObjectMapper objectMapper, OutputStream outputStream) throws IOException {
+    this.generator = objectMapper.getFactory().createGenerator(outputStream);
+    this.serializerProvider = objectMapper.getSerializerProviderInstance();
+  }
+
+  public void writeStartArray() throws IOException {
+    generator.writeStartArray();
+  }
+
+  public void writeEndArray() throws IOException {
+    generator.writeEndArray();
+  }
+
+  /**
+   * Writes the user as the JSON object of its {@link UserGetDTO}.
+   */
+  public void write(UserSummary user) throws IOException {
+    generator.writeStartObject();
+    generator.writeFieldName(ID);
+    if (user.getId() == null) {
+      generator.writeNull();
+    }
+    else {
+      generator.writeNumber(user.getId());
+    }
+    generator.writeFieldName(USERNAME);
+    generator.writeString(user.getUsername());
+    generator.writeFieldName(CREATION_DATE);
+    writeDate(user.getcreation_date());
+    generator.writeFieldName(LOGGED_IN);
+    generator.writeBoolean(user.getlogged_in());
+    generator.writeFieldName(BIRTHDAY);
+    writeDate(user.getBirthday());
+    generator.writeEndObject();
+  }
+
+  public void flush() throws IOException {
+    generator.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    generator.close();
+  }
+
+  private void writeDate(Date date) throws IOException {
+    if (date == null) {
+      generator.writeNull();
+    }
+    else {
+      serializerProvider.defaultSerializeDateValue(date, generator);
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.service.SessionRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AuthenticationConfig {
+
+  @Bean
+  public FilterRegistrationBean<TokenAuthenticationFilter> tokenAuthenticationFilter(
+      SessionRegistry sessionRegistry,
+      @Value("${user.auth.required:false}") boolean authenticationRequired) {
+    FilterRegistrationBean<TokenAuthenticationFilter> registration = new FilterRegistrationBean<>(
+        new TokenAuthenticationFilter(sessionRegistry, authenticationRequired));
+    registration.addUrlPatterns("/*");
+    return registration;
+  }
+}
@@ -0,0 +1,92 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.exceptions.TooManyRequestsException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Login Throttle
+ * Limits login attempts per client address and per username with a
+ * TokenBucketLimiter each, before the user is looked up or the password is
+ * checked. The address limit slows down a single client trying many
+ * usernames, the username limit many clients trying the same account.
+ * Usernames are limited case-insensitively, like they are looked up.
+ * The client address is the remote address of the request, behind a reverse
+ * proxy server.forward-headers-strategy has to be set for it to be the one of
+ * the client.
+ */
+@Component
+public class LoginThrottle {
+
+  private final boolean enabled;
+
+  private final TokenBucketLimiter addressLimiter;
+
+  private final TokenBucketLimiter usernameLimiter;
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  @Autowired
+  public LoginThrottle(@Value("${user.login.rate-limit.enabled:true}") boolean enabled,
+                       @Value("${user.login.rate-limit.address.capacity:20}") int addressCapacity,
+                       @Value("${user.login.rate-limit.address.per-minute:60}") int addressPerMinute,
+                       @Value("${user.login.rate-limit.username.capacity:5}") int usernameCapacity,
+                       @Value("${user.login.rate-limit.username.per-minute:5}") int usernamePerMinute,
+                       @Value("${user.login.rate-limit.max-keys:100000}") int maxKeys) {
+    this(enabled, new TokenBucketLimiter(addressCapacity, addressPerMinute, maxKeys),
+        new TokenBucketLimiter(usernameCapacity, usernamePerMinute, maxKeys));
+  }
+
+  LoginThrottle(boolean enabled, TokenBucketLimiter addressLimiter, TokenBucketLimiter usernameLimiter) {
+    this.enabled = enabled;
+    this.addressLimiter = addressLimiter;
+    this.usernameLimiter = usernameLimiter;
+  }
+
+  /**
+   * Must be called before every login attempt. The username is only charged
+   * if the address is within its limit.
+   *
+   * @throws TooManyRequestsException if either limit is exceeded
+   */
+  public void check(String clientAddress, String username) {
+    if (!enabled) {
+      return;
+    }
+    if (clientAddress != null) {
+      reject(addressLimiter.tryAcquire(clientAddress));
+    }
+    if (username != null) {
+      reject(usernameLimiter.tryAcquire(User.usernameKey(username)));
+    }
+  }
+
+  private void reject(long waitNanos) {
+    if (waitNanos > 0) {
+      rejected.incrementAndGet();
+      // rounded up, retrying after fewer seconds would be rejected again
+      throw new TooManyRequestsException("Too many login attempts",
+          TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1);
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${user.login.rate-limit.evict-interval-ms:60000}")
+  public void evictIdle() {
+    addressLimiter.evictIdle();
+    usernameLimiter.evictIdle();
+  }
+
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  public int getBucketCount() {
+    return addressLimiter.size() + usernameLimiter.size();
+  }
+}
@@ -0,0 +1,86 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.service.SessionRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Token Authentication Filter
+ * Resolves the token in the Authorization header (with or without the "Bearer"
+ * prefix) against the SessionRegistry and stores the id of the authenticated
+ * user as request attribute {@link #USER_ID_ATTRIBUTE}.
+ * A request with an unknown token is rejected with 401. Requests without a
+ * token are only rejected if authentication is required, registration, login
+ * and the H2 console stay public in any case. On public paths an unknown token
+ * is ignored, so that a client with a stale token can still log in again.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+
+  public static final String USER_ID_ATTRIBUTE = TokenAuthenticationFilter.class.getName() + ".userId";
+
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  private final SessionRegistry sessionRegistry;
+
+  private final boolean authenticationRequired;
+
+  private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+  public TokenAuthenticationFilter(SessionRegistry sessionRegistry, boolean authenticationRequired) {
+    this.sessionRegistry = sessionRegistry;
+    this.authenticationRequired = authenticationRequired;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    String token = resolveToken(request);
+    boolean isPublic = isPublic(request);
+    if (token != null) {
+      Long userId = sessionRegistry.authenticate(token);
+      if (userId != null) {
+        request.setAttribute(USER_ID_ATTRIBUTE, userId);
+      }
+      else if (!isPublic) {
+        response.sendError(HttpStatus.UNAUTHORIZED.value(), "Invalid token");
+        return;
+      }
+    }
+    else if (authenticationRequired && !isPublic) {
+      response.sendError(HttpStatus.UNAUTHORIZED.value(), "Not authorized");
+      return;
+    }
+    filterChain.doFilter(request, response);
+  }
+
+  private String resolveToken(HttpServletRequest request) {
+    String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+    if (header == null || header.isBlank()) {
+      return null;
+    }
+    if (header.startsWith(BEARER_PREFIX)) {
+      return header.substring(BEARER_PREFIX.length()).trim();
+    }
+    return header.trim();
+  }
+
+  private boolean isPublic(HttpServletRequest request) {
+    String path = urlPathHelper.getPathWithinApplication(request);
+    String method = request.getMethod();
+    return HttpMethod.OPTIONS.matches(method)
+        || path.equals("/")
+        || path.startsWith("/h2-console")
+        || path.startsWith("/actuator")
+        || (HttpMethod.POST.matches(method) && path.equals("/users"))
+        || (HttpMethod.PUT.matches(method) && (path.equals("/users/login") || path.equals("/async/users/login")));
+  }
+}
@@ -0,0 +1,115 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token Bucket Limiter
+ * One token bucket per key: a bucket holds at most capacity tokens, every
+ * request takes one and tokens are refilled at a fixed rate.
+ * Instead of a token count and a refill time each bucket is a single
+ * timestamp, the time at which it would be full again (the theoretical arrival
+ * time of the generic cell rate algorithm, which behaves exactly like the
+ * bucket). Taking a token moves the timestamp forward by one refill interval
+ * with a compare-and-set, so no locks are needed.
+ * Buckets that are full again carry no information and are dropped by
+ * evictIdle(), which is meant to run on a schedule. At most maxKeys buckets are
+ * kept, keys beyond that share one of a fixed set of overflow buckets, picked
+ * by the hash of the key, until idle buckets have been evicted: a flood of new
+ * keys is limited instead of not at all and never triggers a scan of the map,
+ * while it only exhausts the overflow buckets its own keys hash to.
+ */
+public class TokenBucketLimiter {
+
+  private static final int OVERFLOW_BUCKETS = 64;
+
+  private final long capacity;
+
+  private final long refillIntervalNanos;
+
+  private final int maxKeys;
+
+  private final LongSupplier nanoClock;
+
+  private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+  private final AtomicLong[] overflowBuckets;
+
+  public TokenBucketLimiter(int capacity, int tokensPerMinute, int maxKeys) {
+    this(capacity, tokensPerMinute, maxKeys, OVERFLOW_BUCKETS, System::nanoTime);
+  }
+
+  TokenBucketLimiter(int capacity, int tokensPerMinute, int maxKeys, int overflowBuckets, LongSupplier nanoClock) {
+    if (capacity < 1 || tokensPerMinute < 1) {
+      throw new IllegalArgumentException("Capacity and rate must be positive");
+    }
+    this.capacity = capacity;
+    this.refillIntervalNanos = TimeUnit.MINUTES.toNanos(1) / tokensPerMinute;
+    this.maxKeys = maxKeys;
+    this.nanoClock = nanoClock;
+    this.overflowBuckets = new AtomicLong[overflowBuckets];
+    long now = nanoClock.getAsLong();
+    for (int i = 0; i < overflowBuckets; i++) {
+      this.overflowBuckets[i] = new AtomicLong(now);
+    }
+  }
+
+  /**
+   * Takes a token from the bucket of the key.
+   *
+   * @return 0 if a token was taken, otherwise the nanoseconds until the next
+   *         token is available
+   */
+  public long tryAcquire(String key) {
+    long now = nanoClock.getAsLong();
+    AtomicLong bucket = bucket(key, now);
+    while (true) {
+      long fullAt = bucket.get();
+      long next = Math.max(fullAt, now) + refillIntervalNanos;
+      // the bucket is empty when it would take longer than refilling all tokens
+      long wait = next - now - capacity * refillIntervalNanos;
+      if (wait > 0) {
+        return wait;
+      }
+      if (bucket.compareAndSet(fullAt, next)) {
+        return 0;
+      }
+    }
+  }
+
+  private AtomicLong bucket(String key, long now) {
+    AtomicLong bucket = buckets.get(key);
+    if (bucket != null) {
+      return bucket;
+    }
+    if (buckets.size() >= maxKeys) {
+      return overflowBuckets[overflowIndex(key)];
+    }
+    return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+  }
+
+  int overflowIndex(String key) {
+    int hash = key.hashCode();
+    return Math.floorMod(hash ^ (hash >>> 16), overflowBuckets.length);
+  }
+
+  /**
+   * Drops the buckets that are full again. A request racing with the eviction
+   * of its bucket may get one token more than the capacity.
+   *
+   * @return the number of dropped buckets
+   */
+  public int evictIdle() {
+    long now = nanoClock.getAsLong();
+    int before = buckets.size();
+    buckets.values().removeIf(bucket -> bucket.get() <= now);
+    return Math.max(0, before - buckets.size());
+  }
+
+  public int size() {
+    return buckets.size();
+  }
+}
@@ -0,0 +1,251 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Password Hasher
+ * Hashes passwords with PBKDF2 (HMAC-SHA256) and a random salt. Hashes are
+ * stored as "pbkdf2-sha256$iterations$salt$hash" so that the cost can be raised
+ * later, older hashes are detected by {@link #needsRehash(String)}.
+ * The work is done on a dedicated pool with a bounded queue: when the queue is
+ * full requests fail fast with 503 instead of piling up on the request threads.
+ * Batches together never have more hashes on the pool than half of its
+ * threads, so that logins keep getting through during an import.
+ */
+@Component
+public class PasswordHasher {
+
+  private static final String PREFIX = "pbkdf2-sha256";
+
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+  private static final int SALT_BYTES = 16;
+
+  private static final int HASH_BITS = 256;
+
+  // far above any configured cost, a stored hash cannot tie up the pool
+  private static final int MAX_ITERATIONS = 10_000_000;
+
+  private final Logger log = LoggerFactory.getLogger(PasswordHasher.class);
+
+  private final int iterations;
+
+  private final long timeoutMillis;
+
+  private final ThreadPoolExecutor executor;
+
+  private final Semaphore batchPermits;
+
+  private final SecureRandom random = new SecureRandom();
+
+  @Autowired
+  public PasswordHasher(@Value("${user.password.iterations:100000}") int iterations,
+                        @Value("${user.password.threads:0}") int threads,
+                        @Value("${user.password.queue-capacity:100}") int queueCapacity,
+                        @Value("${user.password.timeout-ms:5000}") long timeoutMillis) {
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    this.iterations = iterations;
+    this.timeoutMillis = timeoutMillis;
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+          Thread thread = new Thread(runnable, "password-hasher");
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.batchPermits = new Semaphore(Math.max(1, poolSize / 2));
+  }
+
+  /**
+   * @return the encoded hash of the password with the configured cost
+   * @throws org.springframework.web.server.ResponseStatusException 503 if the
+   *         hashing pool is saturated
+   */
+  public String hash(String password) {
+    return await(submit(() -> encode(password)));
+  }
+
+  /**
+   * Hashes many passwords on the pool. Each hash waits for one of the batch
+   * permits before it is queued. If no permit frees up within the timeout, the
+   * pool rejects a hash or a hash times out, all remaining hashes are cancelled.
+   *
+   * @throws org.springframework.web.server.ResponseStatusException 503 if the
+   *         hashing pool is saturated
+   */
+  public List<String> hashAll(List<String> passwords) {
+    List<Future<String>> futures = new ArrayList<>(passwords.size());
+    try {
+      for (String password : passwords) {
+        futures.add(submitBatch(() -> encode(password)));
+      }
+      List<String> hashes = new ArrayList<>(passwords.size());
+      for (Future<String> future : futures) {
+        hashes.add(await(future));
+      }
+      return hashes;
+    }
+    catch (RuntimeException e) {
+      for (Future<String> future : futures) {
+        future.cancel(true);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Compares the password with the stored hash in constant time. Stored values
+   * without the hash prefix are passwords from before hashing was introduced and
+   * are compared as plain text. A malformed hash matches no password.
+   *
+   * @throws org.springframework.web.server.ResponseStatusException 503 if the
+   *         hashing pool is saturated
+   */
+  public boolean verify(String password, String storedHash) {
+    if (password == null || storedHash == null) {
+      return false;
+    }
+    if (!storedHash.startsWith(PREFIX + "$")) {
+      return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+          storedHash.getBytes(StandardCharsets.UTF_8));
+    }
+    String[] parts = storedHash.split("\\$", -1);
+    int storedIterations;
+    byte[] salt;
+    byte[] expected;
+    try {
+      if (parts.length != 4) {
+        throw new IllegalArgumentException("expected 4 parts, got " + parts.length);
+      }
+      storedIterations = Integer.parseInt(parts[1]);
+      salt = Base64.getDecoder().decode(parts[2]);
+      expected = Base64.getDecoder().decode(parts[3]);
+    }
+    catch (IllegalArgumentException e) {
+      log.warn("Malformed password hash: {}", e.getMessage());
+      return false;
+    }
+    if (storedIterations < 1 || storedIterations > MAX_ITERATIONS || salt.length == 0
+        || expected.length * 8 != HASH_BITS) {
+      log.warn("Malformed password hash: {} iterations, {} salt bytes, {} hash bytes",
+          storedIterations, salt.length, expected.length);
+      return false;
+    }
+    byte[] actual = await(submit(() -> pbkdf2(password, salt, storedIterations)));
+    return MessageDigest.isEqual(expected, actual);
+  }
+
+  /**
+   * @return true if the stored value is plain text or was hashed with another
+   *         cost than the configured one
+   */
+  public boolean needsRehash(String storedHash) {
+    return storedHash == null || !storedHash.startsWith(PREFIX + "$" + iterations + "$");
+  }
+
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private String encode(String password) {
+    byte[] salt = new byte[SALT_BYTES];
+    random.nextBytes(salt);
+    byte[] hash = pbkdf2(password, salt, iterations);
+    Base64.Encoder encoder = Base64.getEncoder();
+    return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+  }
+
+  private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+    try {
+      return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalStateException(ALGORITHM + " is not available", e);
+    }
+    finally {
+      spec.clearPassword();
+    }
+  }
+
+  private <T> Future<T> submit(Callable<T> task) {
+    try {
+      return executor.submit(task);
+    }
+    catch (RejectedExecutionException e) {
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent password checks");
+    }
+  }
+
+  private <T> Future<T> submitBatch(Callable<T> task) {
+    boolean acquired;
+    try {
+      acquired = batchPermits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Password hashing interrupted");
+    }
+    if (!acquired) {
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Password hashing timed out");
+    }
+    // done() runs once the hash is computed or cancelled, even if it never started
+    FutureTask<T> future = new FutureTask<>(task) {
+      @Override
+      protected void done() {
+        batchPermits.release();
+      }
+    };
+    try {
+      executor.execute(future);
+    }
+    catch (RejectedExecutionException e) {
+      batchPermits.release();
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent password checks");
+    }
+    return future;
+  }
+
+  private <T> T await(Future<T> future) {
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    catch (TimeoutException e) {
+      future.cancel(true);
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Password check timed out");
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Password check interrupted");
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("Password hashing failed", e.getCause());
+    }
+  }
+}
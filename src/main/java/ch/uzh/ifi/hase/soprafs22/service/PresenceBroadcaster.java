@@ -0,0 +1,251 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Presence Broadcaster
+ * Pushes PresenceEvents to the subscribers of the presence stream as
+ * server-sent events. Publishing never blocks: every event is serialized once
+ * and offered to a bounded buffer per subscriber. A small fixed pool of
+ * sender threads drains the buffers into the connections, one subscriber at a
+ * time per thread, so the number of threads does not grow with the number of
+ * subscribers.
+ * A subscriber is disconnected when its buffer overflows because it does not
+ * keep up, or when a single write to it takes longer than the write timeout.
+ * It has to reconnect and reload the users it missed. A write that is stuck
+ * keeps its sender thread until the container fails it, the other senders go
+ * on serving the remaining subscribers.
+ * The senders are platform threads: SseEmitter.send writes while holding the
+ * emitter's monitor, which would pin the carrier of a virtual thread.
+ */
+@Component
+public class PresenceBroadcaster {
+
+  private final Logger log = LoggerFactory.getLogger(PresenceBroadcaster.class);
+
+  private final ObjectMapper objectMapper;
+
+  private final int bufferSize;
+
+  private final long timeoutMillis;
+
+  private final long writeTimeoutNanos;
+
+  private final ExecutorService senders;
+
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong droppedSubscribers = new AtomicLong();
+
+  @Autowired
+  public PresenceBroadcaster(ObjectMapper objectMapper,
+                             @Value("${user.presence.stream.buffer-size:256}") int bufferSize,
+                             @Value("${user.presence.stream.timeout-ms:1800000}") long timeoutMillis,
+                             @Value("${user.presence.stream.write-timeout-ms:5000}") long writeTimeoutMillis,
+                             @Value("${user.presence.stream.sender-threads:4}") int senderThreads) {
+    // the queue holds at most one drain per subscriber
+    this(objectMapper, bufferSize, timeoutMillis, writeTimeoutMillis, Executors.newFixedThreadPool(senderThreads,
+        runnable -> {
+          Thread thread = new Thread(runnable, "presence-sender");
+          thread.setDaemon(true);
+          return thread;
+        }));
+  }
+
+  PresenceBroadcaster(ObjectMapper objectMapper, int bufferSize, long timeoutMillis, long writeTimeoutMillis,
+                      ExecutorService senders) {
+    this.objectMapper = objectMapper;
+    this.bufferSize = bufferSize;
+    this.timeoutMillis = timeoutMillis;
+    this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+    this.senders = senders;
+  }
+
+  /**
+   * @return the emitter of a new subscriber, it is removed again once the
+   *         connection is closed or times out
+   */
+  public SseEmitter subscribe() {
+    return subscribe(new SseEmitter(timeoutMillis));
+  }
+
+  SseEmitter subscribe(SseEmitter emitter) {
+    Subscriber subscriber = new Subscriber(emitter, new ArrayBlockingQueue<>(bufferSize));
+    emitter.onCompletion(() -> subscribers.remove(subscriber));
+    emitter.onTimeout(() -> subscribers.remove(subscriber));
+    emitter.onError(error -> subscribers.remove(subscriber));
+    subscribers.add(subscriber);
+    return emitter;
+  }
+
+  /**
+   * Publishes the event to all current subscribers. Within a transaction the
+   * event is only published once it is committed.
+   */
+  public void publish(PresenceEvent event) {
+    TransactionCallbacks.afterCommit(() -> broadcast(event));
+  }
+
+  /**
+   * Disconnects the subscribers whose current write has been blocked for
+   * longer than the write timeout, so that no further events are buffered for
+   * them.
+   */
+  @Scheduled(fixedDelayString = "${user.presence.stream.write-timeout-ms:5000}")
+  public void dropStalledSubscribers() {
+    long now = System.nanoTime();
+    for (Subscriber subscriber : subscribers) {
+      long started = subscriber.sendStarted;
+      if (started != 0 && now - started > writeTimeoutNanos) {
+        log.debug("Presence stream write blocked for more than {} ms, disconnecting",
+            TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos));
+        drop(subscriber);
+      }
+    }
+  }
+
+  public int getSubscriberCount() {
+    return subscribers.size();
+  }
+
+  public long getDroppedSubscriberCount() {
+    return droppedSubscribers.get();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    senders.shutdownNow();
+    for (Subscriber subscriber : subscribers) {
+      subscriber.emitter.complete();
+    }
+    subscribers.clear();
+  }
+
+  private void broadcast(PresenceEvent event) {
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    String data;
+    try {
+      data = objectMapper.writeValueAsString(event);
+    }
+    catch (JsonProcessingException e) {
+      log.warn("Could not serialize presence event of user {}", event.getId(), e);
+      return;
+    }
+    for (Subscriber subscriber : subscribers) {
+      if (subscriber.buffer.offer(new Message(event.getType().name(), data))) {
+        schedule(subscriber);
+      }
+      else {
+        drop(subscriber);
+      }
+    }
+  }
+
+  private void schedule(Subscriber subscriber) {
+    if (subscriber.scheduled.compareAndSet(false, true)) {
+      try {
+        senders.execute(() -> send(subscriber));
+      }
+      catch (RejectedExecutionException e) {
+        subscriber.scheduled.set(false);
+      }
+    }
+  }
+
+  private void send(Subscriber subscriber) {
+    Message message;
+    while (!subscriber.dropped && (message = subscriber.buffer.poll()) != null) {
+      subscriber.sendStarted = System.nanoTime();
+      try {
+        subscriber.emitter.send(SseEmitter.event().name(message.name).data(message.data));
+      }
+      catch (IOException | IllegalStateException e) {
+        // the client is gone, the emitter callbacks remove the subscriber
+        subscribers.remove(subscriber);
+        return;
+      }
+      finally {
+        subscriber.sendStarted = 0;
+      }
+    }
+    if (subscriber.dropped) {
+      // the subscriber stays scheduled, it never gets another drain
+      subscriber.emitter.complete();
+      return;
+    }
+    subscriber.scheduled.set(false);
+    // an event may have been buffered, or the subscriber dropped, after the
+    // last poll but before the flag was reset
+    if (!subscriber.buffer.isEmpty() || subscriber.dropped) {
+      schedule(subscriber);
+    }
+  }
+
+  /**
+   * complete() waits for the emitter's monitor, which a blocked send of this
+   * subscriber may hold. Instead of the calling thread or another sender, the
+   * subscriber's own drain completes the emitter once its send returns.
+   */
+  private void drop(Subscriber subscriber) {
+    if (subscribers.remove(subscriber)) {
+      droppedSubscribers.incrementAndGet();
+      subscriber.dropped = true;
+      subscriber.buffer.clear();
+      schedule(subscriber);
+    }
+  }
+
+  private static final class Subscriber {
+
+    private final SseEmitter emitter;
+
+    private final Queue<Message> buffer;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // start of the current write in nanoseconds, 0 while none is running
+    private volatile long sendStarted;
+
+    private volatile boolean dropped;
+
+    Subscriber(SseEmitter emitter, Queue<Message> buffer) {
+      this.emitter = emitter;
+      this.buffer = buffer;
+    }
+  }
+
+  private static final class Message {
+
+    private final String name;
+
+    private final String data;
+
+    Message(String name, String data) {
+      this.name = name;
+      this.data = data;
+    }
+  }
+}
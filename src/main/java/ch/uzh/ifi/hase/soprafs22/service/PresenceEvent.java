@@ -0,0 +1,48 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Presence Event
+ * Change of a user as pushed to the subscribers of the PresenceBroadcaster.
+ * Serialized as is, the properties are named like the ones of the UserGetDTO.
+ * Username changes leave out logged_in when the state was not at hand.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PresenceEvent {
+
+  public enum Type {
+    LOGIN, LOGOUT, USERNAME_CHANGE
+  }
+
+  private final Type type;
+
+  private final Long id;
+
+  private final String username;
+
+  private final Boolean logged_in;
+
+  public PresenceEvent(Type type, Long id, String username, Boolean logged_in) {
+    this.type = type;
+    this.id = id;
+    this.username = username;
+    this.logged_in = logged_in;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public Boolean getlogged_in() {
+    return logged_in;
+  }
+}
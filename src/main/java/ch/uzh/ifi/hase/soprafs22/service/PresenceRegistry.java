@@ -0,0 +1,202 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Presence Registry
+ * In-memory set of the ids of all logged in users, so that the online users
+ * and their number are known without scanning the user table. The ids are
+ * spread over a fixed number of shards by a hash of the id. Every shard is a
+ * sorted array of primitive longs that is replaced as a whole with a
+ * compare-and-set on every login and logout, so readers never lock and never
+ * see a shard half written, and writers only copy the ids of one shard.
+ * The registry is loaded from the logged in column of the database on startup
+ * and kept current by the UserService. Listings take the shards one after the
+ * other, a login or logout during a listing may or may not be part of it.
+ */
+@Component
+public class PresenceRegistry implements SmartInitializingSingleton {
+
+  static final int SHARD_BITS = 6;
+
+  static final int SHARDS = 1 << SHARD_BITS;
+
+  private static final long[] EMPTY = new long[0];
+
+  private final Logger log = LoggerFactory.getLogger(PresenceRegistry.class);
+
+  private final UserRepository userRepository;
+
+  private final AtomicReferenceArray<long[]> shards = new AtomicReferenceArray<>(SHARDS);
+
+  private final AtomicInteger onlineCount = new AtomicInteger();
+
+  @Autowired
+  public PresenceRegistry(@Qualifier("userRepository") UserRepository userRepository) {
+    this.userRepository = userRepository;
+    for (int i = 0; i < SHARDS; i++) {
+      shards.set(i, EMPTY);
+    }
+  }
+
+  /**
+   * Loads the registry once all beans exist (the repository calls are
+   * instrumented) but before the server accepts requests.
+   */
+  @Override
+  public void afterSingletonsInstantiated() {
+    reconcile();
+  }
+
+  /**
+   * Replaces the registry with the users that are logged in according to the
+   * database.
+   */
+  public void reconcile() {
+    List<Long> loggedIn = userRepository.findLoggedInIds();
+    long[] ids = new long[loggedIn.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = loggedIn.get(i);
+    }
+    reset(ids);
+    log.info("Loaded {} online users", ids.length);
+  }
+
+  void reset(long[] ids) {
+    long[][] byShard = new long[SHARDS][];
+    int[] sizes = new int[SHARDS];
+    for (long id : ids) {
+      sizes[shard(id)]++;
+    }
+    for (int i = 0; i < SHARDS; i++) {
+      byShard[i] = sizes[i] == 0 ? EMPTY : new long[sizes[i]];
+      sizes[i] = 0;
+    }
+    for (long id : ids) {
+      int shard = shard(id);
+      byShard[shard][sizes[shard]++] = id;
+    }
+    int count = 0;
+    for (int i = 0; i < SHARDS; i++) {
+      long[] shard = byShard[i];
+      Arrays.sort(shard);
+      // the same id twice would break the binary search of add() and remove()
+      int distinct = 0;
+      for (int j = 0; j < shard.length; j++) {
+        if (j == 0 || shard[j] != shard[j - 1]) {
+          shard[distinct++] = shard[j];
+        }
+      }
+      shards.set(i, distinct == shard.length ? shard : Arrays.copyOf(shard, distinct));
+      count += distinct;
+    }
+    onlineCount.set(count);
+  }
+
+  /**
+   * Marks the user as online. Within a transaction this only happens once it
+   * is committed, like the UserVersionTracker.
+   */
+  public void userOnline(Long userId) {
+    TransactionCallbacks.afterCommit(() -> add(userId));
+  }
+
+  public void userOffline(Long userId) {
+    TransactionCallbacks.afterCommit(() -> remove(userId));
+  }
+
+  public boolean isOnline(long userId) {
+    return Arrays.binarySearch(shards.get(shard(userId)), userId) >= 0;
+  }
+
+  public int getOnlineCount() {
+    return onlineCount.get();
+  }
+
+  /**
+   * Merges the shards from the first id after {@code afterId} on, so that only
+   * the returned ids are copied, however many users are online.
+   *
+   * @return the ids of at most {@code limit} online users with an id greater
+   *         than {@code afterId}, in ascending order
+   */
+  public long[] getOnlineUserIds(long afterId, int limit) {
+    long[][] snapshot = new long[SHARDS][];
+    int[] positions = new int[SHARDS];
+    int available = 0;
+    for (int i = 0; i < SHARDS; i++) {
+      long[] shard = shards.get(i);
+      int from = Arrays.binarySearch(shard, afterId);
+      from = from >= 0 ? from + 1 : -from - 1;
+      snapshot[i] = shard;
+      positions[i] = from;
+      available += shard.length - from;
+    }
+    long[] ids = new long[Math.max(0, Math.min(available, limit))];
+    for (int size = 0; size < ids.length; size++) {
+      int next = -1;
+      for (int i = 0; i < SHARDS; i++) {
+        if (positions[i] < snapshot[i].length
+            && (next < 0 || snapshot[i][positions[i]] < snapshot[next][positions[next]])) {
+          next = i;
+        }
+      }
+      ids[size] = snapshot[next][positions[next]++];
+    }
+    return ids;
+  }
+
+  private void add(long userId) {
+    int index = shard(userId);
+    while (true) {
+      long[] shard = shards.get(index);
+      int position = Arrays.binarySearch(shard, userId);
+      if (position >= 0) {
+        return;
+      }
+      position = -position - 1;
+      long[] updated = new long[shard.length + 1];
+      System.arraycopy(shard, 0, updated, 0, position);
+      updated[position] = userId;
+      System.arraycopy(shard, position, updated, position + 1, shard.length - position);
+      if (shards.compareAndSet(index, shard, updated)) {
+        onlineCount.incrementAndGet();
+        return;
+      }
+    }
+  }
+
+  private void remove(long userId) {
+    int index = shard(userId);
+    while (true) {
+      long[] shard = shards.get(index);
+      int position = Arrays.binarySearch(shard, userId);
+      if (position < 0) {
+        return;
+      }
+      long[] updated = shard.length == 1 ? EMPTY : new long[shard.length - 1];
+      System.arraycopy(shard, 0, updated, 0, position);
+      System.arraycopy(shard, position + 1, updated, position, shard.length - position - 1);
+      if (shards.compareAndSet(index, shard, updated)) {
+        onlineCount.decrementAndGet();
+        return;
+      }
+    }
+  }
+
+  private static int shard(long userId) {
+    // the ids are sequential, the multiplication spreads them over the shards
+    return (int) ((userId * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - SHARD_BITS));
+  }
+}
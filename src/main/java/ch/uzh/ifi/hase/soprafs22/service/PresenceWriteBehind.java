@@ -0,0 +1,120 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Presence Write-Behind
+ * Writes the logged in state of users to the database. By default every change
+ * is written right away with a single UPDATE. In write-behind mode changes are
+ * only recorded in memory, where a later change of the same user replaces the
+ * earlier one, and written periodically with at most two UPDATE statements
+ * (one for all logged in, one for all logged out users).
+ * Pending changes are written at least every flush interval, as soon as there
+ * are more than the configured maximum, and on shutdown.
+ */
+@Component
+public class PresenceWriteBehind {
+
+  private final Logger log = LoggerFactory.getLogger(PresenceWriteBehind.class);
+
+  private final UserRepository userRepository;
+
+  private final TransactionTemplate transactionTemplate;
+
+  private final boolean enabled;
+
+  private final int maxPending;
+
+  private final Map<Long, Boolean> pending = new ConcurrentHashMap<>();
+
+  @Autowired
+  public PresenceWriteBehind(@Qualifier("userRepository") UserRepository userRepository,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${user.presence.write-behind.enabled:false}") boolean enabled,
+                             @Value("${user.presence.write-behind.max-pending:10000}") int maxPending) {
+    this.userRepository = userRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    // never part of the caller's transaction, the flushed changes are dropped
+    // from pending as soon as they are written
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.enabled = enabled;
+    this.maxPending = maxPending;
+  }
+
+  /**
+   * Records the new logged in state of the user. Without write-behind the
+   * state is written immediately, within the transaction of the caller. A
+   * flush because of too many pending changes waits until that transaction
+   * is committed.
+   */
+  public void record(Long userId, boolean loggedIn) {
+    if (!enabled) {
+      userRepository.updateLoggedIn(List.of(userId), loggedIn);
+      return;
+    }
+    pending.put(userId, loggedIn);
+    if (pending.size() >= maxPending) {
+      TransactionCallbacks.afterCommit(this::flush);
+    }
+  }
+
+  /**
+   * @return the logged in state of the user that is not written to the
+   *         database yet, or null if there is none
+   */
+  public Boolean getPendingState(Long userId) {
+    return pending.get(userId);
+  }
+
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Writes all pending changes. Changes recorded while the flush is running
+   * are kept for the next one.
+   */
+  @Scheduled(fixedDelayString = "${user.presence.write-behind.flush-interval-ms:500}")
+  public synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    List<Long> loggedIn = new ArrayList<>();
+    List<Long> loggedOut = new ArrayList<>();
+    Map<Long, Boolean> flushed = Map.copyOf(pending);
+    flushed.forEach((userId, state) -> (state ? loggedIn : loggedOut).add(userId));
+
+    transactionTemplate.executeWithoutResult(status -> {
+      if (!loggedIn.isEmpty()) {
+        userRepository.updateLoggedIn(loggedIn, true);
+      }
+      if (!loggedOut.isEmpty()) {
+        userRepository.updateLoggedIn(loggedOut, false);
+      }
+    });
+    // only drop what was written, a newer state has to stay pending
+    flushed.forEach(pending::remove);
+    log.debug("Flushed presence of {} users", flushed.size());
+  }
+
+  @PreDestroy
+  public void drain() {
+    flush();
+  }
+}
@@ -0,0 +1,78 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Session Registry
+ * In-memory table of the tokens of all logged in users, so that a request can
+ * be authenticated with a hash lookup instead of a database query.
+ * Tokens are registered on login and creation of a user and removed on logout.
+ * After a restart the table is empty and gets primed from the UserRepository
+ * the first time a token is seen. The logged in flag of the database may lag
+ * behind with the PresenceWriteBehind, its pending state takes precedence, so
+ * that the token of a user who just logged out is not taken up again.
+ */
+@Component
+public class SessionRegistry {
+
+  private final UserRepository userRepository;
+
+  private final PresenceWriteBehind presenceWriteBehind;
+
+  private final Map<String, Long> userIdsByToken = new ConcurrentHashMap<>();
+
+  @Autowired
+  public SessionRegistry(@Qualifier("userRepository") UserRepository userRepository,
+                         PresenceWriteBehind presenceWriteBehind) {
+    this.userRepository = userRepository;
+    this.presenceWriteBehind = presenceWriteBehind;
+  }
+
+  /**
+   * @param token the token sent by the client
+   * @return the id of the logged in user owning the token, or null if the token
+   *         is unknown or its user is logged out
+   */
+  public Long authenticate(String token) {
+    if (token == null) {
+      return null;
+    }
+    Long userId = userIdsByToken.get(token);
+    if (userId != null) {
+      return userId;
+    }
+    User user = userRepository.findByToken(token);
+    if (user == null) {
+      return null;
+    }
+    Boolean pendingState = presenceWriteBehind.getPendingState(user.getId());
+    if (!(pendingState != null ? pendingState : user.getlogged_in())) {
+      return null;
+    }
+    userIdsByToken.put(token, user.getId());
+    return user.getId();
+  }
+
+  public void register(User user) {
+    if (user.getToken() != null && user.getId() != null) {
+      userIdsByToken.put(user.getToken(), user.getId());
+    }
+  }
+
+  public void invalidate(User user) {
+    if (user.getToken() != null) {
+      userIdsByToken.remove(user.getToken());
+    }
+  }
+
+  public int size() {
+    return userIdsByToken.size();
+  }
+}
@@ -0,0 +1,33 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Transaction Callbacks
+ * Defers changes of in-memory state until the database change they mirror is
+ * committed, so a rolled back transaction leaves them untouched.
+ */
+final class TransactionCallbacks {
+
+  private TransactionCallbacks() {
+  }
+
+  /**
+   * Runs the change once the current transaction is committed, right away if
+   * there is none.
+   */
+  static void afterCommit(Runnable change) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          change.run();
+        }
+      });
+    }
+    else {
+      change.run();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a batch user creation: the number of created users and, for every
+ * user that was not created, its position in the batch and the reason.
+ */
+public class UserBatchResult {
+
+  private int created;
+
+  private final List<Conflict> conflicts = new ArrayList<>();
+
+  public int getCreated() {
+    return created;
+  }
+
+  public List<Conflict> getConflicts() {
+    return conflicts;
+  }
+
+  void addCreated(int count) {
+    created += count;
+  }
+
+  void addConflict(int index, String username, String reason) {
+    conflicts.add(new Conflict(index, username, reason));
+  }
+
+  /**
+   * Adds the result of a later chunk of the same batch, shifting its indexes
+   * by the position of the chunk in the batch.
+   */
+  public void append(UserBatchResult chunkResult, int indexOffset) {
+    created += chunkResult.created;
+    for (Conflict conflict : chunkResult.conflicts) {
+      addConflict(conflict.getIndex() + indexOffset, conflict.getUsername(), conflict.getReason());
+    }
+  }
+
+  public static class Conflict {
+
+    private final int index;
+
+    private final String username;
+
+    private final String reason;
+
+    Conflict(int index, String username, String reason) {
+      this.index = index;
+      this.username = username;
+      this.reason = reason;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public String getUsername() {
+      return username;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+  }
+}
@@ -2,17 +2,32 @@ package ch.uzh.ifi.hase.soprafs22.service;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.ConstraintViolations;
+import ch.uzh.ifi.hase.soprafs22.repository.UserFilter;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSpecifications;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import io.micrometer.core.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -26,45 +41,260 @@ import java.util.UUID;
 @Transactional
 public class UserService {
 
+  /**
+   * Upper bound for a single keyset page, so a client cannot pull the whole
+   * table into memory through the limit parameter.
+   */
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  /**
+   * Maximum number of users created in one transaction by
+   * {@link #createUsers(List)}, larger batches have to be split by the caller.
+   */
+  public static final int MAX_BATCH_SIZE = 1000;
+
+  /**
+   * Upper bound for the number of users returned by a username search.
+   */
+  public static final int MAX_SEARCH_RESULTS = 100;
+
   private final Logger log = LoggerFactory.getLogger(UserService.class);
 
   private final UserRepository userRepository;
 
+  private final SessionRegistry sessionRegistry;
+
+  private final PresenceWriteBehind presenceWriteBehind;
+
+  private final PasswordHasher passwordHasher;
+
+  private final UserVersionTracker userVersionTracker;
+
+  private final PresenceBroadcaster presenceBroadcaster;
+
+  private final PresenceRegistry presenceRegistry;
+
+  private final UsernameIndex usernameIndex;
+
+  private final TransactionTemplate transactionTemplate;
+
   @Autowired
-  public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+  public UserService(@Qualifier("userRepository") UserRepository userRepository,
+                     SessionRegistry sessionRegistry, PresenceWriteBehind presenceWriteBehind,
+                     PasswordHasher passwordHasher, UserVersionTracker userVersionTracker,
+                     PresenceBroadcaster presenceBroadcaster, PresenceRegistry presenceRegistry,
+                     UsernameIndex usernameIndex, PlatformTransactionManager transactionManager) {
     this.userRepository = userRepository;
+    this.sessionRegistry = sessionRegistry;
+    this.presenceWriteBehind = presenceWriteBehind;
+    this.passwordHasher = passwordHasher;
+    this.userVersionTracker = userVersionTracker;
+    this.presenceBroadcaster = presenceBroadcaster;
+    this.presenceRegistry = presenceRegistry;
+    this.usernameIndex = usernameIndex;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
   }
 
   public List<User> getUsers() {
     return this.userRepository.findAll();
   }
 
-  public User getUserById(Long userId) {
-        checkIfUserIdExists(userId);
-        return userRepository.findUserById(userId);
+  /**
+   * Returns at most {@code limit} users whose id is greater than
+   * {@code afterId}, ordered by id. A {@code null} cursor starts at the
+   * beginning of the table; the id of the last returned user is the cursor for
+   * the next page.
+   * Runs in a read-only transaction (flush mode MANUAL, no dirty checking) and
+   * only loads the summary columns.
+   *
+   * @param afterId id of the last user of the previous page, or null
+   * @param limit   page size, between 1 and {@link #MAX_PAGE_SIZE}
+   * @throws org.springframework.web.server.ResponseStatusException
+   */
+  @Transactional(readOnly = true)
+  @Timed(value = "user.service", extraTags = { "operation", "getAll" })
+  public List<UserSummary> getUsersAfter(Long afterId, int limit) {
+    checkPageSize(limit);
+    long cursor = afterId == null ? 0L : afterId;
+    List<UserSummary> summaries = userRepository.findSummariesByIdGreaterThanOrderByIdAsc(cursor,
+        PageRequest.of(0, limit));
+    List<UserSummary> users = new ArrayList<>(summaries.size());
+    for (UserSummary summary : summaries) {
+      users.add(applyPendingPresence(summary));
+    }
+    return users;
+  }
+
+  /**
+   * Same keyset page as {@link #getUsersAfter(Long, int)}, restricted to the
+   * users that are logged in. The ids are taken from the PresenceRegistry, so
+   * only the users of the page are read from the database and the cost does
+   * not depend on the number of users that are offline.
+   *
+   * @throws org.springframework.web.server.ResponseStatusException
+   */
+  @Transactional(readOnly = true)
+  @Timed(value = "user.service", extraTags = { "operation", "getOnline" })
+  public List<UserSummary> getOnlineUsersAfter(Long afterId, int limit) {
+    checkPageSize(limit);
+    long[] ids = presenceRegistry.getOnlineUserIds(afterId == null ? 0L : afterId, limit);
+    if (ids.length == 0) {
+      return new ArrayList<>();
+    }
+    List<Long> idList = new ArrayList<>(ids.length);
+    for (long id : ids) {
+      idList.add(id);
+    }
+    List<UserSummary> summaries = userRepository.findSummariesByIdIn(idList);
+    List<UserSummary> users = new ArrayList<>(summaries.size());
+    for (UserSummary summary : summaries) {
+      users.add(applyPendingPresence(summary));
+    }
+    return users;
+  }
 
+  /**
+   * Users matching the filter in the given order, filtered and sorted by the
+   * database and only selecting the summary columns. Ordered by id, the
+   * result is a keyset page like {@link #getUsersAfter(Long, int)} and
+   * {@code afterId} the cursor, ties of other orders are broken by id.
+   * With the PresenceWriteBehind enabled, the logged in filter applies to the
+   * state written to the database.
+   *
+   * @param sort    by properties of {@link UserSpecifications#SORTABLE_PROPERTIES}
+   * @param afterId cursor, only when sorted by id
+   * @throws org.springframework.web.server.ResponseStatusException
+   */
+  @Transactional(readOnly = true)
+  @Timed(value = "user.service", extraTags = { "operation", "filter" })
+  public List<UserSummary> getUsersMatching(UserFilter filter, Sort sort, Long afterId, int limit) {
+    checkPageSize(limit);
+    Specification<User> specification = UserSpecifications.matching(filter);
+    Sort.Order first = sort.isSorted() ? sort.iterator().next() : Sort.Order.asc("id");
+    boolean byId = "id".equals(first.getProperty());
+    if (afterId != null) {
+      if (!byId) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "after can only be used when sorting by id");
+      }
+      specification = specification.and(first.isAscending()
+          ? UserSpecifications.idGreaterThan(afterId) : UserSpecifications.idLessThan(afterId));
+    }
+    Sort order = byId ? Sort.by(first) : sort.and(Sort.by("id"));
+    List<UserSummary> summaries = userRepository.findSummaries(specification, order, limit);
+    List<UserSummary> users = new ArrayList<>(summaries.size());
+    for (UserSummary summary : summaries) {
+      users.add(applyPendingPresence(summary));
+    }
+    return users;
+  }
+
+  // answered from memory, without a transaction that would take a connection
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public int getOnlineCount() {
+    return presenceRegistry.getOnlineCount();
+  }
+
+  /**
+   * Users whose username starts with the prefix, case-insensitively and in
+   * alphabetical order, from the UsernameIndex without a database query.
+   *
+   * @param limit between 1 and {@link #MAX_SEARCH_RESULTS}
+   * @throws org.springframework.web.server.ResponseStatusException
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  @Timed(value = "user.service", extraTags = { "operation", "search" })
+  public List<UsernameIndex.Match> searchUsernames(String prefix, int limit) {
+    if (prefix == null || prefix.isEmpty()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Prefix is required");
+    }
+    if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          String.format("Limit must be between 1 and %d", MAX_SEARCH_RESULTS));
+    }
+    return usernameIndex.search(prefix, limit);
   }
 
+  private static void checkPageSize(int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          String.format("Limit must be between 1 and %d", MAX_PAGE_SIZE));
+    }
+  }
+
+  /**
+   * Read-only variant of {@link #getUserById(Long)} for callers that only
+   * return the user. The summary is taken from the user in the second-level
+   * cache, only on a miss the summary columns are loaded.
+   *
+   * @throws org.springframework.web.server.ResponseStatusException
+   */
+  @Transactional(readOnly = true)
+  @Timed(value = "user.service", extraTags = { "operation", "getById" })
+  public UserSummary getUserSummaryById(Long userId) {
+      UserSummary summary = userRepository.findSummaryById(userId);
+      if (summary == null) {
+          throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Id not found");
+      }
+      return applyPendingPresence(summary);
+  }
+
+  @Timed(value = "user.service", extraTags = { "operation", "getById" })
+  public User getUserById(Long userId) {
+      // by id, so the user can come from the second-level cache
+      User user = userRepository.findById(userId).orElse(null);
+      if (user == null) {
+          throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Id not found");
+      }
+      applyPendingPresence(user);
+      return user;
+  }
+
+  /**
+   * Runs without a surrounding transaction, the password is verified and
+   * rehashed while no database connection is held. The lookup and the writes
+   * take their own short transactions.
+   */
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  @Timed(value = "user.service", extraTags = { "operation", "login" })
   public User loginUser(User userInput){
-      User existingUser = userRepository.findByUsername(userInput.getUsername());
+      User existingUser = findUserByUsername(userInput.getUsername());
       if (existingUser == null){
           throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No user with this username");
       }
-      if (!userInput.getPassword().equals(existingUser.getPassword())){
+      if (!passwordHasher.verify(userInput.getPassword(), existingUser.getPassword())){
           throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Password incorrect");
       }
+      // upgrade plain text passwords and hashes of an outdated cost
+      boolean rehashed = passwordHasher.needsRehash(existingUser.getPassword());
+      if (rehashed) {
+          existingUser.setPassword(passwordHasher.hash(userInput.getPassword()));
+      }
       existingUser.setlogged_in(true);
-      userRepository.save(existingUser);
-      userRepository.flush();
+      transactionTemplate.executeWithoutResult(status -> {
+          if (rehashed) {
+              userRepository.updatePassword(existingUser.getId(), existingUser.getPassword());
+          }
+          presenceWriteBehind.record(existingUser.getId(), true);
+          presenceRegistry.userOnline(existingUser.getId());
+          userVersionTracker.userChanged(existingUser.getId());
+      });
+      presenceBroadcaster.publish(new PresenceEvent(PresenceEvent.Type.LOGIN, existingUser.getId(),
+          existingUser.getUsername(), true));
+      sessionRegistry.register(existingUser);
       return existingUser;
   }
 
+    @Timed(value = "user.service", extraTags = { "operation", "logout" })
     public User logoutUser(User currentUser){
 
         if (currentUser != null && currentUser.getlogged_in()){
             currentUser.setlogged_in(false);
-            userRepository.save(currentUser);
-            userRepository.flush();
+            presenceWriteBehind.record(currentUser.getId(), false);
+            presenceRegistry.userOffline(currentUser.getId());
+            userVersionTracker.userChanged(currentUser.getId());
+            presenceBroadcaster.publish(new PresenceEvent(PresenceEvent.Type.LOGOUT, currentUser.getId(),
+                currentUser.getUsername(), false));
+            sessionRegistry.invalidate(currentUser);
             return currentUser;
         }
         else{
@@ -73,79 +303,249 @@ public class UserService {
 
     }
 
+  /**
+   * The password is hashed before the transaction is started, like in
+   * {@link #loginUser(User)}. A taken username is rejected before hashing, so
+   * registrations with taken usernames cannot tie up the hashing pool. The
+   * UsernameIndex answers that without a query. The unique constraint stays
+   * the actual check, two concurrent registrations can both pass the lookup.
+   */
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  @Timed(value = "user.service", extraTags = { "operation", "create" })
   public User createUser(User newUser) {
     newUser.setToken(UUID.randomUUID().toString());
     newUser.setlogged_in(true);
 
-    checkIfUserExists(newUser);
+    if (newUser.getPassword() == null) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Password is required");
+    }
+    if (newUser.getUsername() != null && usernameIndex.contains(newUser.getUsername())) {
+      throw new ResponseStatusException(HttpStatus.CONFLICT, "Username is not unique");
+    }
+    newUser.setPassword(passwordHasher.hash(newUser.getPassword()));
 
-    // saves the given entity but data is only persisted in the database once
-    // flush() is called
-    newUser = userRepository.save(newUser);
-    userRepository.flush();
+    User createdUser = transactionTemplate.execute(status -> {
+      // saves the given entity but data is only persisted in the database once
+      // flush() is called, which also checks that the username is unique
+      User savedUser = userRepository.save(newUser);
+      flushUniqueUsername();
+      userVersionTracker.usersAdded();
+      return savedUser;
+    });
+    presenceRegistry.userOnline(createdUser.getId());
+    usernameIndex.put(createdUser.getId(), createdUser.getUsername());
+    sessionRegistry.register(createdUser);
 
 
-    log.debug("Created Information for User: {}", newUser);
-    return newUser;
+    log.debug("Created Information for User: {}", createdUser);
+    return createdUser;
   }
 
+  /**
+   * Creates all users of the batch whose username is neither taken nor used
+   * twice within the batch. Uniqueness is checked with a single query for the
+   * whole batch and the users are inserted with JDBC batching. Unlike
+   * {@link #createUser(User)} the new users are not logged in.
+   *
+   * The passwords are hashed outside of the transaction that inserts the
+   * users.
+   *
+   * @param newUsers at most {@link #MAX_BATCH_SIZE} users
+   * @return the number of created users and the rejected ones with the reason
+   * @throws org.springframework.web.server.ResponseStatusException
+   */
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  @Timed(value = "user.service", extraTags = { "operation", "createBatch" })
+  public UserBatchResult createUsers(List<User> newUsers) {
+    if (newUsers.size() > MAX_BATCH_SIZE) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          String.format("At most %d users can be created at once", MAX_BATCH_SIZE));
+    }
+    UserBatchResult result = new UserBatchResult();
+
+    Set<String> usernames = new HashSet<>();
+    for (User newUser : newUsers) {
+      if (newUser.getUsername() != null) {
+        usernames.add(newUser.getUsername());
+      }
+    }
+    Set<String> takenUsernames = usernames.isEmpty()
+        ? new HashSet<>()
+        : new HashSet<>(userRepository.findExistingUsernames(usernames));
+
+    List<User> acceptedUsers = new ArrayList<>(newUsers.size());
+    List<String> passwords = new ArrayList<>(newUsers.size());
+    for (int i = 0; i < newUsers.size(); i++) {
+      User newUser = newUsers.get(i);
+      if (newUser.getUsername() == null || newUser.getPassword() == null) {
+        result.addConflict(i, newUser.getUsername(), "Username and password are required");
+      }
+      // add() also catches duplicates within the batch
+      else if (!takenUsernames.add(newUser.getUsername())) {
+        result.addConflict(i, newUser.getUsername(), "Username is not unique");
+      }
+      else {
+        newUser.setToken(UUID.randomUUID().toString());
+        newUser.setlogged_in(false);
+        acceptedUsers.add(newUser);
+        passwords.add(newUser.getPassword());
+      }
+    }
+
+    List<String> hashes = passwordHasher.hashAll(passwords);
+    for (int i = 0; i < acceptedUsers.size(); i++) {
+      acceptedUsers.get(i).setPassword(hashes.get(i));
+    }
+
+    transactionTemplate.executeWithoutResult(status -> {
+      userRepository.saveAll(acceptedUsers);
+      userRepository.flush();
+      if (!acceptedUsers.isEmpty()) {
+        userVersionTracker.usersAdded();
+      }
+    });
+    result.addCreated(acceptedUsers.size());
+    for (User acceptedUser : acceptedUsers) {
+      usernameIndex.put(acceptedUser.getId(), acceptedUser.getUsername());
+    }
+
+    log.debug("Created {} users in batch, rejected {}", acceptedUsers.size(), result.getConflicts().size());
+    return result;
+  }
+
+  /**
+   * Partial update, only the username and birthday that are set are changed.
+   * Written with a single targeted UPDATE, the user is never loaded. A missing
+   * birthday keeps the stored one, {@link #updateUserBday(User)} clears it.
+   * Clients send the whole profile, so the username is only written, indexed
+   * and published as a change if it differs from the one in the
+   * UsernameIndex.
+   */
+  @Timed(value = "user.service", extraTags = { "operation", "update" })
   public void updateUser(User user){
-      checkIfUserExists(user);
       Long id = user.getId();
-      checkIfUserIdExists(id);
-      User oldUser = userRepository.findUserById(id);
-      oldUser.setBirthday(user.getBirthday());
-      oldUser.setUsername(user.getUsername());
+      String username = user.getUsername();
+      // compared in memory, the update stays a single statement
+      if (username != null && username.equals(usernameIndex.getUsername(id))) {
+          username = null;
+      }
+      int updated;
+      try {
+          updated = userRepository.updateProfile(id, username,
+              username == null ? null : User.usernameKey(username), user.getBirthday());
+      }
+      catch (DataIntegrityViolationException e) {
+          throw usernameConflict(e);
+      }
+      afterUpdate(id, updated);
+      if (username != null) {
+          usernameIndex.put(id, username);
+          publishUsernameChange(id, username);
+      }
   }
 
+    @Timed(value = "user.service", extraTags = { "operation", "update" })
     public void updateUsername(User user){
-        checkIfUserExists(user);
         Long id = user.getId();
-        User oldUser = userRepository.findUserById(id);
-        //oldUser.setBirthday(user.getBirthday());
-        oldUser.setUsername(user.getUsername());
+        int updated;
+        try {
+            updated = userRepository.updateUsername(id, user.getUsername(), User.usernameKey(user.getUsername()));
+        }
+        catch (DataIntegrityViolationException e) {
+            throw usernameConflict(e);
+        }
+        afterUpdate(id, updated);
+        usernameIndex.put(id, user.getUsername());
+        publishUsernameChange(id, user.getUsername());
     }
 
+    @Timed(value = "user.service", extraTags = { "operation", "update" })
     public void updateUserBday(User user){
-        User userByUsername = userRepository.findByUsername(user.getUsername());
-
-        String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
-        if (userByUsername != null && user.getId() != userByUsername.getId()) {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, "Username is not unique");
-        }
+        // the username is not written here, so it needs no uniqueness check
         Long id = user.getId();
-        User oldUser = userRepository.findUserById(id);
-        oldUser.setBirthday(user.getBirthday());
-        oldUser.setUsername(oldUser.getUsername());
+        afterUpdate(id, userRepository.updateBirthday(id, user.getBirthday()));
     }
 
-
+  private void afterUpdate(Long id, int updated) {
+    if (updated == 0) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Id not found");
+    }
+    userVersionTracker.userChanged(id);
+  }
 
   /**
-   * This is a helper method that will check the uniqueness criteria of the
-   * username and the name
-   * defined in the User entity. The method will do nothing if the input is unique
-   * and throw an error otherwise.
+   * This is a helper method that writes the pending user changes and thereby
+   * checks the uniqueness criteria defined in the User entity. Queries in
+   * advance only reject the obvious cases, the unique constraint on the
+   * username is the check, so two concurrent requests cannot both take the
+   * same username.
    *
-   * @param userToBeCreated
    * @throws org.springframework.web.server.ResponseStatusException
    * @see User
    */
-  private void checkIfUserExists(User userToBeCreated) {
-    User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
+  private void flushUniqueUsername() {
+    try {
+      userRepository.flush();
+    }
+    catch (DataIntegrityViolationException e) {
+      throw usernameConflict(e);
+    }
+  }
 
-    String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
-    if (userByUsername != null) {
-      throw new ResponseStatusException(HttpStatus.CONFLICT, "Username is not unique");
+  private RuntimeException usernameConflict(DataIntegrityViolationException e) {
+    // other violations, e.g. of the token, are left to the GlobalExceptionAdvice
+    if (ConstraintViolations.isUniqueViolation(e, ConstraintViolations.USERNAME_UNIQUE)) {
+      return new ResponseStatusException(HttpStatus.CONFLICT, "Username is not unique", e);
+    }
+    return e;
+  }
+
+  /**
+   * Looks the user up through the query cache, which maps the username to
+   * the id of the user in the second-level cache. Only on a miss the
+   * UserRepository queries the database.
+   *
+   * @param username
+   * @return the user or null if there is no user with this username
+   */
+  private User findUserByUsername(String username) {
+    if (username == null) {
+      return null;
+    }
+    User user = userRepository.findByUsername(username);
+    if (user != null) {
+      applyPendingPresence(user);
     }
+    return user;
+  }
+
+  /**
+   * The user is not loaded for a rename, the logged in state is taken from
+   * the PresenceRegistry.
+   */
+  private void publishUsernameChange(Long id, String username) {
+    presenceBroadcaster.publish(new PresenceEvent(PresenceEvent.Type.USERNAME_CHANGE, id, username,
+        presenceRegistry.isOnline(id)));
   }
 
-    private void checkIfUserIdExists(Long userId) {
-        User userById = userRepository.findUserById(userId);
+  /**
+   * The database may lag behind the logged in state while the
+   * PresenceWriteBehind holds unwritten changes, those take precedence.
+   * The logged in column is never written by dirty checking, so this is safe on
+   * managed entities.
+   */
+  private void applyPendingPresence(User user) {
+    Boolean pendingState = presenceWriteBehind.getPendingState(user.getId());
+    if (pendingState != null) {
+      user.setlogged_in(pendingState);
+    }
+  }
 
-        String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
-        if (userById == null) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Id not found");
-        }
+  private UserSummary applyPendingPresence(UserSummary summary) {
+    Boolean pendingState = presenceWriteBehind.getPendingState(summary.getId());
+    if (pendingState == null || pendingState == summary.getlogged_in()) {
+      return summary;
     }
+    return UserSummary.withLoggedIn(summary, pendingState);
+  }
 }
@@ -0,0 +1,132 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * User Version Tracker
+ * Keeps the versions the ETag and Last-Modified headers of the user resources
+ * are derived from in memory, so conditional GETs can be answered without
+ * touching the database. Every change of a user made through the UserService
+ * (including logging in and out) increments the collection version and stamps
+ * it, with the time of the change, on the user.
+ * Users are spread over a fixed number of slots instead of being tracked one
+ * by one, so memory use does not grow with the number of users. A change to
+ * another user in the same slot only costs a full response, never a stale
+ * one. The versions start over on every restart, the ETags include a random
+ * epoch for that reason.
+ */
+@Component
+public class UserVersionTracker {
+
+  static final int SLOTS = 1 << 16;
+
+  private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+
+  private final LongSupplier clock;
+
+  private final AtomicLong collectionVersion = new AtomicLong();
+
+  private final AtomicLongArray userVersions = new AtomicLongArray(SLOTS);
+
+  private final AtomicLongArray userModifiedTimes = new AtomicLongArray(SLOTS);
+
+  private final long startTime;
+
+  private volatile long collectionModifiedTime;
+
+  private final AtomicLong conditionalRequests = new AtomicLong();
+
+  private final AtomicLong notModifiedResponses = new AtomicLong();
+
+  public UserVersionTracker() {
+    this(System::currentTimeMillis);
+  }
+
+  UserVersionTracker(LongSupplier clock) {
+    this.clock = clock;
+    this.startTime = clock.getAsLong();
+    this.collectionModifiedTime = startTime;
+  }
+
+  /**
+   * Must be called after every change of the user that is visible through the
+   * API. Within a transaction the version only changes once it is committed,
+   * otherwise a concurrent GET could store the old state under the new ETag.
+   */
+  public void userChanged(Long userId) {
+    TransactionCallbacks.afterCommit(() -> increment(userId));
+  }
+
+  private void increment(Long userId) {
+    long now = clock.getAsLong();
+    long version = collectionVersion.incrementAndGet();
+    collectionModifiedTime = now;
+    if (userId != null) {
+      int slot = slot(userId);
+      userVersions.set(slot, version);
+      userModifiedTimes.set(slot, now);
+    }
+  }
+
+  /**
+   * Must be called after users were created, the collection changes but no
+   * existing user does.
+   */
+  public void usersAdded() {
+    userChanged(null);
+  }
+
+  public String getUserETag(Long userId) {
+    return eTag(userVersions.get(slot(userId)));
+  }
+
+  /**
+   * @return the time of the last change to the user, or the start of the
+   *         application if it has not changed since
+   */
+  public long getUserLastModified(Long userId) {
+    long modified = userModifiedTimes.get(slot(userId));
+    return modified == 0 ? startTime : modified;
+  }
+
+  public String getCollectionETag() {
+    return eTag(collectionVersion.get());
+  }
+
+  public long getCollectionLastModified() {
+    return collectionModifiedTime;
+  }
+
+  /**
+   * Counts a GET that went through the ETag check and whether it was answered
+   * with 304 Not Modified.
+   */
+  public void recordConditionalRequest(boolean notModified) {
+    conditionalRequests.incrementAndGet();
+    if (notModified) {
+      notModifiedResponses.incrementAndGet();
+    }
+  }
+
+  public long getConditionalRequestCount() {
+    return conditionalRequests.get();
+  }
+
+  public long getNotModifiedCount() {
+    return notModifiedResponses.get();
+  }
+
+  private String eTag(long version) {
+    // weak, the representation may still be compressed differently
+    return "W/\"" + epoch + "-" + version + "\"";
+  }
+
+  private static int slot(Long userId) {
+    return (int) (userId ^ (userId >>> 32)) & (SLOTS - 1);
+  }
+}
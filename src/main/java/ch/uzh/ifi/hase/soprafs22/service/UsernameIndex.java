@@ -0,0 +1,424 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.repository.UsernameEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Username Index
+ * Radix tree of the username keys (lower case usernames) of all users, for
+ * prefix searches without a database query. Every node holds the characters
+ * of its incoming edge, its children ordered by their first character and the
+ * ids of the users whose key ends at it, so a search walks the prefix and then
+ * collects the first matches in alphabetical order.
+ * The index is loaded from the database on startup and kept current by the
+ * UserService once a creation or rename is committed. Searches share a read
+ * lock, changes take the write lock.
+ */
+@Component
+public class UsernameIndex implements SmartInitializingSingleton {
+
+  static final int LOAD_CHUNK_SIZE = 10000;
+
+  private static final char[] NO_LABEL = new char[0];
+
+  private static final Node[] NO_CHILDREN = new Node[0];
+
+  private static final long[] NO_IDS = new long[0];
+
+  private final Logger log = LoggerFactory.getLogger(UsernameIndex.class);
+
+  private final UserRepository userRepository;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private Node root = new Node(NO_LABEL);
+
+  private Map<Long, String> usernamesById = new HashMap<>();
+
+  @Autowired
+  public UsernameIndex(@Qualifier("userRepository") UserRepository userRepository) {
+    this.userRepository = userRepository;
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    rebuild();
+  }
+
+  /**
+   * Replaces the index with the usernames in the database, read in keyset
+   * chunks of {@link #LOAD_CHUNK_SIZE}. Changes made while it runs are lost.
+   */
+  public void rebuild() {
+    Node newRoot = new Node(NO_LABEL);
+    Map<Long, String> newUsernames = new HashMap<>();
+    long cursor = 0L;
+    List<UsernameEntry> chunk;
+    do {
+      chunk = userRepository.findUsernamesByIdGreaterThan(cursor, PageRequest.of(0, LOAD_CHUNK_SIZE));
+      for (UsernameEntry entry : chunk) {
+        insert(newRoot, User.usernameKey(entry.getUsername()), entry.getId());
+        newUsernames.put(entry.getId(), entry.getUsername());
+        cursor = entry.getId();
+      }
+    } while (chunk.size() == LOAD_CHUNK_SIZE);
+
+    lock.writeLock().lock();
+    try {
+      root = newRoot;
+      usernamesById = newUsernames;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+    log.info("Indexed {} usernames, about {} KiB", newUsernames.size(), getEstimatedBytes() / 1024);
+  }
+
+  /**
+   * Adds the user or moves it to its new username, once the transaction is
+   * committed.
+   */
+  public void put(Long userId, String username) {
+    TransactionCallbacks.afterCommit(() -> putNow(userId, username));
+  }
+
+  private void putNow(long userId, String username) {
+    String key = User.usernameKey(username);
+    lock.writeLock().lock();
+    try {
+      String previous = usernamesById.put(userId, username);
+      if (previous != null) {
+        String previousKey = User.usernameKey(previous);
+        if (previousKey.equals(key)) {
+          return;
+        }
+        remove(root, previousKey, 0, userId);
+      }
+      insert(root, key, userId);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @param prefix matched case-insensitively
+   * @return at most {@code limit} users whose username starts with the
+   *         prefix, in alphabetical order of the username keys
+   */
+  public List<Match> search(String prefix, int limit) {
+    String key = User.usernameKey(prefix);
+    List<Match> matches = new ArrayList<>(Math.min(limit, 16));
+    lock.readLock().lock();
+    try {
+      Node node = root;
+      int offset = 0;
+      while (offset < key.length()) {
+        int index = childIndex(node, key.charAt(offset));
+        if (index < 0) {
+          return matches;
+        }
+        Node child = node.children[index];
+        int length = Math.min(child.label.length, key.length() - offset);
+        for (int i = 1; i < length; i++) {
+          if (child.label[i] != key.charAt(offset + i)) {
+            return matches;
+          }
+        }
+        node = child;
+        offset += child.label.length;
+      }
+      collect(node, limit, matches);
+      return matches;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Exact, case-sensitive lookup like the unique constraint on the username.
+   *
+   * @return true if an indexed user has this username. Users whose creation
+   *         or rename is not committed yet are not indexed
+   */
+  public boolean contains(String username) {
+    String key = User.usernameKey(username);
+    lock.readLock().lock();
+    try {
+      Node node = root;
+      int offset = 0;
+      while (offset < key.length()) {
+        int index = childIndex(node, key.charAt(offset));
+        if (index < 0) {
+          return false;
+        }
+        Node child = node.children[index];
+        if (offset + child.label.length > key.length()) {
+          return false;
+        }
+        for (int i = 1; i < child.label.length; i++) {
+          if (child.label[i] != key.charAt(offset + i)) {
+            return false;
+          }
+        }
+        node = child;
+        offset += child.label.length;
+      }
+      // the ids of the key in any case, only the exact username counts
+      for (long id : node.ids) {
+        if (username.equals(usernamesById.get(id))) {
+          return true;
+        }
+      }
+      return false;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the username of the user as of the last committed creation or
+   *         rename, null if the user is not indexed
+   */
+  public String getUsername(long userId) {
+    lock.readLock().lock();
+    try {
+      return usernamesById.get(userId);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return usernamesById.size();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Walks the whole tree, it is meant for metrics and not for every request.
+   *
+   * @return the approximate heap size of the index in bytes, assuming
+   *         compressed references and Latin-1 usernames
+   */
+  public long getEstimatedBytes() {
+    lock.readLock().lock();
+    try {
+      int entries = usernamesById.size();
+      long bytes = nodeBytes(root);
+      // HashMap table, nodes and the boxed ids
+      bytes += align(16 + 4L * (entries * 4 / 3 + 1)) + entries * (32L + 16L);
+      for (String username : usernamesById.values()) {
+        bytes += 24 + align(16 + username.length());
+      }
+      return bytes;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void collect(Node node, int limit, List<Match> matches) {
+    for (long id : node.ids) {
+      if (matches.size() == limit) {
+        return;
+      }
+      matches.add(new Match(id, usernamesById.get(id)));
+    }
+    for (Node child : node.children) {
+      if (matches.size() == limit) {
+        return;
+      }
+      collect(child, limit, matches);
+    }
+  }
+
+  private static void insert(Node root, String key, long id) {
+    Node node = root;
+    int offset = 0;
+    while (offset < key.length()) {
+      int index = childIndex(node, key.charAt(offset));
+      if (index < 0) {
+        Node leaf = new Node(key.substring(offset).toCharArray());
+        node.children = insertAt(node.children, -index - 1, leaf);
+        node = leaf;
+        break;
+      }
+      Node child = node.children[index];
+      int common = 1;
+      while (common < child.label.length && offset + common < key.length()
+          && child.label[common] == key.charAt(offset + common)) {
+        common++;
+      }
+      if (common < child.label.length) {
+        // the key leaves the edge half way, split it
+        Node split = new Node(Arrays.copyOf(child.label, common));
+        child.label = Arrays.copyOfRange(child.label, common, child.label.length);
+        split.children = new Node[] { child };
+        node.children[index] = split;
+        child = split;
+      }
+      node = child;
+      offset += common;
+    }
+    int position = Arrays.binarySearch(node.ids, id);
+    if (position < 0) {
+      position = -position - 1;
+      long[] ids = new long[node.ids.length + 1];
+      System.arraycopy(node.ids, 0, ids, 0, position);
+      ids[position] = id;
+      System.arraycopy(node.ids, position, ids, position + 1, node.ids.length - position);
+      node.ids = ids;
+    }
+  }
+
+  /**
+   * @return whether the node is empty now and can be dropped by its parent
+   */
+  private static boolean remove(Node node, String key, int offset, long id) {
+    if (offset == key.length()) {
+      int position = Arrays.binarySearch(node.ids, id);
+      if (position >= 0) {
+        long[] ids = node.ids.length == 1 ? NO_IDS : new long[node.ids.length - 1];
+        System.arraycopy(node.ids, 0, ids, 0, position);
+        System.arraycopy(node.ids, position + 1, ids, position, node.ids.length - position - 1);
+        node.ids = ids;
+      }
+    }
+    else {
+      int index = childIndex(node, key.charAt(offset));
+      if (index < 0) {
+        return false;
+      }
+      Node child = node.children[index];
+      if (offset + child.label.length > key.length()) {
+        return false;
+      }
+      for (int i = 1; i < child.label.length; i++) {
+        if (child.label[i] != key.charAt(offset + i)) {
+          return false;
+        }
+      }
+      if (remove(child, key, offset + child.label.length, id)) {
+        Node[] children = new Node[node.children.length - 1];
+        System.arraycopy(node.children, 0, children, 0, index);
+        System.arraycopy(node.children, index + 1, children, index, children.length - index);
+        node.children = children.length == 0 ? NO_CHILDREN : children;
+      }
+      else if (child.ids.length == 0 && child.children.length == 1) {
+        // merge the edge with the only one that is left below it
+        Node grandChild = child.children[0];
+        char[] label = Arrays.copyOf(child.label, child.label.length + grandChild.label.length);
+        System.arraycopy(grandChild.label, 0, label, child.label.length, grandChild.label.length);
+        grandChild.label = label;
+        node.children[index] = grandChild;
+      }
+    }
+    return node.ids.length == 0 && node.children.length == 0;
+  }
+
+  private static int childIndex(Node node, char first) {
+    Node[] children = node.children;
+    int low = 0;
+    int high = children.length - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      char c = children[middle].label[0];
+      if (c < first) {
+        low = middle + 1;
+      }
+      else if (c > first) {
+        high = middle - 1;
+      }
+      else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private static Node[] insertAt(Node[] children, int position, Node child) {
+    Node[] updated = new Node[children.length + 1];
+    System.arraycopy(children, 0, updated, 0, position);
+    updated[position] = child;
+    System.arraycopy(children, position, updated, position + 1, children.length - position);
+    return updated;
+  }
+
+  private static long nodeBytes(Node node) {
+    long bytes = 24 + align(16 + 2L * node.label.length);
+    if (node.children.length > 0) {
+      bytes += align(16 + 4L * node.children.length);
+    }
+    if (node.ids.length > 0) {
+      bytes += 16 + 8L * node.ids.length;
+    }
+    for (Node child : node.children) {
+      bytes += nodeBytes(child);
+    }
+    return bytes;
+  }
+
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  private static final class Node {
+
+    private char[] label;
+
+    private Node[] children = NO_CHILDREN;
+
+    private long[] ids = NO_IDS;
+
+    Node(char[] label) {
+      this.label = label;
+    }
+  }
+
+  /**
+   * A user found by {@link #search(String, int)}.
+   */
+  public static final class Match {
+
+    private final long id;
+
+    private final String username;
+
+    Match(long id, String username) {
+      this.id = id;
+      this.username = username;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public String getUsername() {
+      return username;
+    }
+  }
+}
@@ -0,0 +1,3 @@
+-- range filters and sorting of GET /users, see UserSpecifications
+create index user_creation_date_idx on "user" (creation_date);
+create index user_birthday_idx on "user" (birthday);
@@ -0,0 +1,20 @@
+-- ids are handed out in blocks of 50, see User
+create sequence user_sequence start with 1 increment by 50;
+
+-- "user" is a reserved word in PostgreSQL, the table name is always quoted
+create table "user" (
+  id bigint not null,
+  password varchar(255) not null,
+  username varchar(255) not null,
+  username_key varchar(255) not null,
+  token varchar(255) not null,
+  creation_date timestamp not null,
+  logged_in boolean not null,
+  birthday timestamp,
+  status integer,
+  primary key (id),
+  constraint user_username_unique unique (username),
+  constraint user_token_unique unique (token)
+);
+
+create index user_username_key_idx on "user" (username_key);
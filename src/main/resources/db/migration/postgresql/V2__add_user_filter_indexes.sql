@@ -0,0 +1,6 @@
+-- range filters and sorting of GET /users, see UserSpecifications
+create index user_creation_date_idx on "user" (creation_date);
+create index user_birthday_idx on "user" (birthday);
+
+-- LIKE 'prefix%' only uses a btree index with the C collation or pattern ops
+create index user_username_key_pattern_idx on "user" (username_key varchar_pattern_ops);
@@ -2,36 +2,68 @@ package ch.uzh.ifi.hase.soprafs22.controller;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.exceptions.TooManyRequestsException;
+import ch.uzh.ifi.hase.soprafs22.execution.AsyncRequestExecutor;
+import ch.uzh.ifi.hase.soprafs22.repository.UserFilter;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs22.security.LoginThrottle;
+import ch.uzh.ifi.hase.soprafs22.security.TokenAuthenticationFilter;
+import ch.uzh.ifi.hase.soprafs22.service.PresenceBroadcaster;
+import ch.uzh.ifi.hase.soprafs22.service.SessionRegistry;
+import ch.uzh.ifi.hase.soprafs22.service.UserBatchResult;
 import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import ch.uzh.ifi.hase.soprafs22.service.UserVersionTracker;
+import ch.uzh.ifi.hase.soprafs22.service.UsernameIndex;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.mockito.AdditionalMatchers;
-import org.mockito.Matchers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.hamcrest.Matchers.*;
 import static org.mockito.AdditionalMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -46,12 +78,30 @@ public class UserControllerTest {
   @Autowired
   private MockMvc mockMvc;
 
+  @Autowired
+  private WebApplicationContext webApplicationContext;
+
   @MockBean
   private UserService userService;
 
   @MockBean
   private DTOMapper dtoMapper;
 
+  @SpyBean
+  private UserVersionTracker userVersionTracker;
+
+  @MockBean
+  private PresenceBroadcaster presenceBroadcaster;
+
+  @MockBean
+  private LoginThrottle loginThrottle;
+
+  @SpyBean
+  private UserListingCache userListingCache;
+
+  @SpyBean
+  private AsyncRequestExecutor asyncRequestExecutor;
+
 
   @Test
   public void createUser_validInput_userCreated() throws Exception {
@@ -103,6 +153,20 @@ public class UserControllerTest {
 
 
 
+    @Test
+    public void constraintViolation_whenPostUser_thenReturnConflict() throws Exception {
+        // given post 409, the unique constraint rejected the username
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("username");
+        userPostDTO.setPassword("password");
+
+        given(userService.createUser(Mockito.any())).willThrow(new DataIntegrityViolationException("duplicate",
+                new SQLException("Unique index or primary key violation", "23505")));
+
+        mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+                .andExpect(status().isConflict());
+    }
+
         @Test
     public void validId_whenGetUserId_thenReturnUser() throws Exception {
         // given get 200 OK     get 1    WORKING
@@ -116,7 +180,7 @@ public class UserControllerTest {
         //given(userService.getUserById(user.getId())).willReturn(user);
         //given(userService.getUsers()).willReturn(allUser);
 
-        when(userService.getUserById(user.getId())).thenReturn(user);
+        when(userService.getUserSummaryById(user.getId())).thenReturn(UserSummary.of(user));
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder getRequest = get("/users/{Id}", user.getId()).contentType(MediaType.APPLICATION_JSON);
@@ -144,8 +208,8 @@ public class UserControllerTest {
         //given(userService.getUserById(user.getId())).willReturn(user);
         //given(userService.getUsers()).willReturn(allUser);
 
-        when(userService.getUserById(user.getId())).thenReturn(user);
-        when(userService.getUserById(user.getId()+1)).thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND));
+        when(userService.getUserSummaryById(user.getId())).thenReturn(UserSummary.of(user));
+        when(userService.getUserSummaryById(user.getId()+1)).thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND));
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder getRequest = get("/users/{Id}", user.getId()+1).contentType(MediaType.APPLICATION_JSON);
@@ -159,6 +223,320 @@ public class UserControllerTest {
 
 
 
+    @Test
+    public void currentETag_whenGetUserId_thenNotModified() throws Exception {
+        // given 200 OK with an ETag, then 304 for the same ETag without asking the service
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("username");
+
+        when(userService.getUserSummaryById(user.getId())).thenReturn(UserSummary.of(user));
+
+        String eTag = mockMvc.perform(get("/users/{Id}", user.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/users/{Id}", user.getId()).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        Mockito.verify(userService, Mockito.times(1)).getUserSummaryById(user.getId());
+        Mockito.verify(userVersionTracker, Mockito.times(2)).recordConditionalRequest(Mockito.anyBoolean());
+        Mockito.verify(userVersionTracker).recordConditionalRequest(true);
+    }
+
+    @Test
+    public void changedUser_whenGetUserId_thenReturnUser() throws Exception {
+        // given the ETag of an older version of the user -> 200 OK
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("username");
+
+        when(userService.getUserSummaryById(user.getId())).thenReturn(UserSummary.of(user));
+
+        String eTag = userVersionTracker.getUserETag(user.getId());
+        userVersionTracker.userChanged(user.getId());
+
+        mockMvc.perform(get("/users/{Id}", user.getId()).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, userVersionTracker.getUserETag(user.getId())))
+                .andExpect(jsonPath("$.username", is(user.getUsername())));
+    }
+
+    @Test
+    public void currentETag_whenGetUsers_thenNotModified() throws Exception {
+        // given the current collection ETag -> 304 without querying any user
+        mockMvc.perform(get("/users").param("limit", "10")
+                        .header(HttpHeaders.IF_NONE_MATCH, userVersionTracker.getCollectionETag()))
+                .andExpect(status().isNotModified());
+
+        Mockito.verifyNoInteractions(userService);
+    }
+
+    @Test
+    public void whenGetPresenceStream_thenEventStreamStarted() throws Exception {
+        given(presenceBroadcaster.subscribe()).willReturn(new SseEmitter());
+
+        mockMvc.perform(get(UserController.PRESENCE_STREAM_PATH).accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted());
+
+        Mockito.verify(presenceBroadcaster).subscribe();
+    }
+
+    @Test
+    public void givenUsers_whenGetUsers_thenStreamJsonArray() throws Exception {
+        // given get 200 OK, all users streamed chunk by chunk
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("username");
+        user.setlogged_in(true);
+
+        given(userService.getUsersAfter(null, UserController.USER_CHUNK_SIZE))
+                .willReturn(Collections.singletonList(UserSummary.of(user)));
+
+        // when -> the body is written asynchronously
+        MvcResult mvcResult = mockMvc.perform(get("/users").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // then
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(user.getId().intValue())))
+                .andExpect(jsonPath("$[0].username", is(user.getUsername())))
+                .andExpect(jsonPath("$[0].logged_in", is(user.getlogged_in())));
+    }
+
+    @Test
+    public void acceptsGzip_whenGetUsers_thenCompressedListingCachedUntilChanged() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("username");
+
+        given(userService.getUsersAfter(null, UserController.USER_CHUNK_SIZE))
+                .willReturn(Collections.singletonList(UserSummary.of(user)));
+
+        for (int i = 0; i < 2; i++) {
+            MvcResult mvcResult = mockMvc.perform(get("/users").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            byte[] compressed = mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                    .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT_ENCODING)))
+                    .andReturn().getResponse().getContentAsByteArray();
+            try (GZIPInputStream json = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                assertThat(new String(json.readAllBytes(), StandardCharsets.UTF_8),
+                        startsWith("[{\"id\":1,\"username\":\"username\""));
+            }
+        }
+        // the second request is served from the cache
+        Mockito.verify(userService, Mockito.times(1)).getUsersAfter(null, UserController.USER_CHUNK_SIZE);
+
+        userVersionTracker.usersAdded();
+        MvcResult mvcResult = mockMvc.perform(get("/users").header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult)).andExpect(status().isOk());
+        Mockito.verify(userService, Mockito.times(2)).getUsersAfter(null, UserController.USER_CHUNK_SIZE);
+    }
+
+    @Test
+    public void gzipQualityValues_whenGetUsers_thenCompressedOnlyIfAccepted() throws Exception {
+        given(userService.getUsersAfter(null, UserController.USER_CHUNK_SIZE)).willReturn(Collections.emptyList());
+
+        for (String refused : List.of("gzip;q=0", "gzip; q=0.0, deflate", "*;q=0.5, gzip;q=0", "br")) {
+            MvcResult mvcResult = mockMvc.perform(get("/users").header(HttpHeaders.ACCEPT_ENCODING, refused))
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+        }
+        for (String accepted : List.of("gzip;q=0.5", "deflate, GZIP; q=1", "*", "br, *;q=0.1")) {
+            MvcResult mvcResult = mockMvc.perform(get("/users").header(HttpHeaders.ACCEPT_ENCODING, accepted))
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"));
+        }
+    }
+
+    @Test
+    public void givenLimit_whenGetUsers_thenReturnPageWithCursor() throws Exception {
+        // given get 200 OK, a full page -> cursor of the last user in the header
+        User user = new User();
+        user.setId(7L);
+        user.setUsername("username");
+
+        given(userService.getUsersAfter(3L, 1)).willReturn(Collections.singletonList(UserSummary.of(user)));
+
+        MvcResult mvcResult = mockMvc.perform(get("/users").param("after", "3").param("limit", "1"))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "7"))
+                .andReturn();
+
+        // then
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(7)));
+    }
+
+    @Test
+    public void online_whenGetUsers_thenOnlyOnlineUsersListed() throws Exception {
+        User user = new User();
+        user.setId(4L);
+        user.setUsername("online");
+        user.setlogged_in(true);
+
+        given(userService.getOnlineUsersAfter(null, UserController.USER_CHUNK_SIZE))
+                .willReturn(Collections.singletonList(UserSummary.of(user)));
+
+        // not from the gzip listing cache, which holds all users
+        MvcResult mvcResult = mockMvc.perform(get("/users").param("online", "true")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(4)));
+        Mockito.verify(userService, Mockito.never()).getUsersAfter(Mockito.any(), Mockito.anyInt());
+    }
+
+    @Test
+    public void offline_whenGetUsers_thenReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/users").param("online", "false"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void filterParams_whenGetUsers_thenFilteredByService() throws Exception {
+        User user = new User();
+        user.setId(2L);
+        user.setUsername("robin");
+
+        given(userService.getUsersMatching(Mockito.any(), Mockito.eq(Sort.by(Sort.Direction.DESC, "birthday")),
+                Mockito.isNull(), Mockito.eq(20)))
+                .willReturn(Collections.singletonList(UserSummary.of(user)));
+
+        MvcResult mvcResult = mockMvc.perform(get("/users")
+                        .param("username_prefix", "ro")
+                        .param("logged_in", "true")
+                        .param("birthday_from", "2000-01-01")
+                        .param("sort", "birthday,desc")
+                        .param("limit", "20"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].username", is("robin")));
+        ArgumentCaptor<UserFilter> filter = ArgumentCaptor.forClass(UserFilter.class);
+        Mockito.verify(userService).getUsersMatching(filter.capture(), Mockito.any(), Mockito.any(), Mockito.anyInt());
+        assertEquals("ro", filter.getValue().getUsernamePrefix());
+        assertEquals(Boolean.TRUE, filter.getValue().getLoggedIn());
+        assertNotNull(filter.getValue().getBirthdayFrom());
+    }
+
+    @Test
+    public void sortedByUsername_whenGetUsers_thenNoCursor() throws Exception {
+        User user = new User();
+        user.setId(7L);
+        user.setUsername("username");
+
+        given(userService.getUsersMatching(Mockito.any(), Mockito.eq(Sort.by("username")), Mockito.isNull(),
+                Mockito.eq(1)))
+                .willReturn(Collections.singletonList(UserSummary.of(user)));
+
+        // a full page, but the id of its last user is no cursor in this order
+        MvcResult mvcResult = mockMvc.perform(get("/users").param("sort", "username").param("limit", "1"))
+                .andExpect(header().doesNotExist(UserController.NEXT_CURSOR_HEADER))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult)).andExpect(status().isOk());
+
+        mvcResult = mockMvc.perform(get("/async/users").param("sort", "username").param("limit", "1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(UserController.NEXT_CURSOR_HEADER))
+                .andExpect(jsonPath("$", hasSize(1)));
+    }
+
+    @Test
+    public void invalidSort_whenGetUsers_thenReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/users").param("sort", "password").param("limit", "10"))
+                .andExpect(status().isBadRequest());
+        // no cursor to stream all users sorted by anything but the id
+        mockMvc.perform(get("/users").param("sort", "username"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void prefix_whenSearchUsers_thenReturnMatches() throws Exception {
+        UsernameIndex usernameIndex = new UsernameIndex(null);
+        usernameIndex.put(5L, "robin");
+        given(userService.searchUsernames("ro", UserController.DEFAULT_SEARCH_RESULTS))
+                .willReturn(usernameIndex.search("ro", 10));
+
+        mockMvc.perform(get(UserController.SEARCH_PATH).param("prefix", "ro"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(5)))
+                .andExpect(jsonPath("$[0].username", is("robin")));
+    }
+
+    @Test
+    public void whenGetOnlineCount_thenReturnCount() throws Exception {
+        given(userService.getOnlineCount()).willReturn(3);
+
+        mockMvc.perform(get(UserController.ONLINE_COUNT_PATH))
+                .andExpect(status().isOk())
+                .andExpect(content().string("3"));
+    }
+
+    @Test
+    public void validInput_whenPostUsersBatch_thenReturnCreated() throws Exception {
+        // given post 201, both users are passed to the service in one chunk
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("testPassword");
+
+        UserBatchResult result = new UserBatchResult();
+        given(userService.createUsers(Mockito.any())).willReturn(result);
+
+        MockHttpServletRequestBuilder postRequest = post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(List.of(userPostDTO, userPostDTO)));
+
+        // then
+        mockMvc.perform(postRequest)
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.created", is(0)))
+                .andExpect(jsonPath("$.conflicts", hasSize(0)));
+        Mockito.verify(userService, Mockito.times(1)).createUsers(Mockito.argThat(users -> users.size() == 2));
+    }
+
+    @Test
+    public void ndjsonInput_whenPostUsersBatch_thenReturnCreated() throws Exception {
+        // given post 201, one user per line
+        given(userService.createUsers(Mockito.any())).willReturn(new UserBatchResult());
+
+        MockHttpServletRequestBuilder postRequest = post("/users/batch")
+                .contentType(UserController.NDJSON_VALUE)
+                .content("{\"username\":\"first\",\"password\":\"pw\"}\n\n{\"username\":\"second\",\"password\":\"pw\"}\n");
+
+        // then
+        mockMvc.perform(postRequest)
+                .andExpect(status().isCreated());
+        Mockito.verify(userService, Mockito.times(1)).createUsers(Mockito.argThat(users -> users.size() == 2
+                && users.get(1).getUsername().equals("second")));
+    }
+
     @Test
     public void validInput_whenPutUserId_thenReturnNoContent() throws Exception {
         // given post 204 no content, update User     put 1     yess
@@ -188,6 +566,22 @@ public class UserControllerTest {
 
     }
 
+    @Test
+    public void validInput_whenPatchUserId_thenReturnNoContent() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setBirthday(new Date(0));
+
+        MockHttpServletRequestBuilder patchRequest = patch("/users/{Id}", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(user));
+
+        mockMvc.perform(patchRequest)
+                .andExpect(status().isNoContent());
+        Mockito.verify(userService).updateUser(Mockito.argThat(update ->
+                update.getUsername() == null && update.getBirthday() != null));
+    }
+
     @Test
     public void invalidId_whenPutUserId_thenReturnNotFound() throws Exception {
         // given put 404 not found      put 2     no
@@ -227,6 +621,174 @@ public class UserControllerTest {
 
 
 
+  @Test
+  public void login_throttledBeforeService() throws Exception {
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("testUsername");
+    user.setToken("1");
+    user.setlogged_in(true);
+    given(userService.loginUser(Mockito.any())).willReturn(user);
+
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("password");
+
+    mockMvc.perform(put("/users/login").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO))
+            .with(request -> {
+              request.setRemoteAddr("192.0.2.1");
+              return request;
+            }))
+        .andExpect(status().isOk());
+    Mockito.verify(loginThrottle).check("192.0.2.1", "testUsername");
+  }
+
+  @Test
+  public void login_tooManyAttempts_tooManyRequestsWithRetryAfter() throws Exception {
+    doThrow(new TooManyRequestsException("Too many login attempts", 12))
+        .when(loginThrottle).check(Mockito.any(), Mockito.eq("testUsername"));
+
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("password");
+
+    mockMvc.perform(put("/users/login").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+        .andExpect(status().isTooManyRequests())
+        .andExpect(header().string(HttpHeaders.RETRY_AFTER, "12"));
+    Mockito.verify(userService, Mockito.never()).loginUser(Mockito.any());
+  }
+
+  @Test
+  public void validId_whenGetUserIdAsync_thenReturnUser() throws Exception {
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("username");
+
+    when(userService.getUserSummaryById(user.getId())).thenReturn(UserSummary.of(user));
+    when(userService.getUserSummaryById(2L)).thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+    MvcResult mvcResult = mockMvc.perform(get("/async/users/{Id}", user.getId()))
+        .andExpect(request().asyncStarted())
+        .andExpect(header().exists(HttpHeaders.ETAG))
+        .andReturn();
+    mockMvc.perform(asyncDispatch(mvcResult))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.id", is(1)))
+        .andExpect(jsonPath("$.username", is(user.getUsername())));
+
+    mvcResult = mockMvc.perform(get("/async/users/{Id}", 2L))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mockMvc.perform(asyncDispatch(mvcResult))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void currentETag_whenGetUserIdAsync_thenNotModifiedWithoutExecutor() throws Exception {
+    mockMvc.perform(get("/async/users/{Id}", 1L)
+            .header(HttpHeaders.IF_NONE_MATCH, userVersionTracker.getUserETag(1L)))
+        .andExpect(request().asyncNotStarted())
+        .andExpect(status().isNotModified());
+    Mockito.verify(asyncRequestExecutor, Mockito.never()).submit(Mockito.any());
+  }
+
+  @Test
+  public void givenLimit_whenGetUsersAsync_thenReturnPageWithCursor() throws Exception {
+    User user = new User();
+    user.setId(7L);
+    user.setUsername("username");
+
+    given(userService.getUsersAfter(3L, 1)).willReturn(Collections.singletonList(UserSummary.of(user)));
+
+    MvcResult mvcResult = mockMvc.perform(get("/async/users").param("after", "3").param("limit", "1"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mockMvc.perform(asyncDispatch(mvcResult))
+        .andExpect(status().isOk())
+        .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "7"))
+        .andExpect(jsonPath("$", hasSize(1)))
+        .andExpect(jsonPath("$[0].id", is(7)))
+        .andExpect(jsonPath("$[0].username", is(user.getUsername())));
+  }
+
+  @Test
+  public void invalidSort_whenGetUsersAsync_thenBadRequestWithoutExecutor() throws Exception {
+    mockMvc.perform(get("/async/users").param("sort", "password"))
+        .andExpect(request().asyncNotStarted())
+        .andExpect(status().isBadRequest());
+    mockMvc.perform(get("/async/users").param("sort", "username"))
+        .andExpect(request().asyncNotStarted())
+        .andExpect(status().isBadRequest());
+    Mockito.verify(asyncRequestExecutor, Mockito.never()).submit(Mockito.any());
+  }
+
+  @Test
+  public void validInput_whenLoginAsync_thenThrottledAndLoggedIn() throws Exception {
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("testUsername");
+    user.setToken("1");
+    user.setlogged_in(true);
+    given(userService.loginUser(Mockito.any())).willReturn(user);
+
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("password");
+
+    MvcResult mvcResult = mockMvc.perform(put("/async/users/login").contentType(MediaType.APPLICATION_JSON)
+            .content(asJsonString(userPostDTO))
+            .with(request -> {
+              request.setRemoteAddr("192.0.2.1");
+              return request;
+            }))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mockMvc.perform(asyncDispatch(mvcResult))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.username", is(user.getUsername())))
+        .andExpect(jsonPath("$.logged_in", is(true)));
+    Mockito.verify(loginThrottle).check("192.0.2.1", "testUsername");
+  }
+
+  @Test
+  public void executorBusy_whenGetUserIdAsync_thenServiceUnavailable() throws Exception {
+    Mockito.doThrow(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server is busy"))
+        .when(asyncRequestExecutor).submit(Mockito.any());
+
+    mockMvc.perform(get("/async/users/{Id}", 1L))
+        .andExpect(status().isServiceUnavailable());
+    Mockito.verify(userService, Mockito.never()).getUserSummaryById(Mockito.any());
+  }
+
+  @Test
+  public void staleToken_whenLoginAndGetUser_thenLoginPassedAndGetUnauthorized() throws Exception {
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("testUsername");
+    user.setToken("1");
+    user.setlogged_in(true);
+    given(userService.loginUser(Mockito.any())).willReturn(user);
+
+    SessionRegistry sessionRegistry = Mockito.mock(SessionRegistry.class);
+    Mockito.when(sessionRegistry.authenticate(Mockito.any())).thenReturn(null);
+    MockMvc authenticatedMockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext)
+        .addFilters(new TokenAuthenticationFilter(sessionRegistry, true))
+        .build();
+
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("password");
+
+    authenticatedMockMvc.perform(put("/users/login").contentType(MediaType.APPLICATION_JSON)
+            .content(asJsonString(userPostDTO))
+            .header(HttpHeaders.AUTHORIZATION, "Bearer stale"))
+        .andExpect(status().isOk())
+        .andExpect(request().attribute(TokenAuthenticationFilter.USER_ID_ATTRIBUTE, nullValue()));
+    authenticatedMockMvc.perform(get("/users/{Id}", 1L).header(HttpHeaders.AUTHORIZATION, "Bearer stale"))
+        .andExpect(status().isUnauthorized());
+    Mockito.verify(userService, Mockito.never()).getUserSummaryById(Mockito.any());
+  }
+
   /**
    * Helper Method to convert userPostDTO into a JSON string such that the input
    * can be processed
@@ -0,0 +1,73 @@
+package ch.uzh.ifi.hase.soprafs22.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserListingCacheTest {
+
+  @Test
+  public void writeGzip_sameETag_writtenOnce() throws IOException {
+    UserListingCache cache = new UserListingCache(true, 1024);
+    AtomicInteger writes = new AtomicInteger();
+    UserListingCache.ListingWriter writer = outputStream -> {
+      writes.incrementAndGet();
+      outputStream.write("[]".getBytes(StandardCharsets.UTF_8));
+    };
+
+    assertEquals("[]", gunzip(write(cache, "\"1\"", writer)));
+    assertEquals("[]", gunzip(write(cache, "\"1\"", writer)));
+    assertEquals(1, writes.get());
+    assertEquals(1, cache.getHitCount());
+
+    write(cache, "\"2\"", writer);
+    assertEquals(2, writes.get());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void writeGzip_listingTooLarge_streamedAndNoLongerCached() throws IOException {
+    UserListingCache cache = new UserListingCache(true, 1024);
+    byte[] listing = new byte[64 * 1024];
+    new Random(1).nextBytes(listing);
+    AtomicInteger writes = new AtomicInteger();
+    UserListingCache.ListingWriter writer = outputStream -> {
+      writes.incrementAndGet();
+      outputStream.write(listing);
+    };
+
+    assertArrayEquals(listing, gunzipBytes(write(cache, "\"1\"", writer)));
+    assertEquals(0, cache.getSizeBytes());
+
+    // given up on caching: streamed once per request, no attempt to buffer it
+    assertArrayEquals(listing, gunzipBytes(write(cache, "\"1\"", writer)));
+    assertEquals(3, writes.get());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  private static byte[] write(UserListingCache cache, String eTag, UserListingCache.ListingWriter writer)
+      throws IOException {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    cache.writeGzip(eTag, response, writer);
+    return response.toByteArray();
+  }
+
+  private static String gunzip(byte[] compressed) throws IOException {
+    return new String(gunzipBytes(compressed), StandardCharsets.UTF_8);
+  }
+
+  private static byte[] gunzipBytes(byte[] compressed) throws IOException {
+    try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      return gzip.readAllBytes();
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package ch.uzh.ifi.hase.soprafs22.execution;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncRequestExecutorTest {
+
+  private final AsyncRequestExecutor asyncRequestExecutor = new AsyncRequestExecutor(1, 10, 1, 200);
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @AfterEach
+  public void tearDown() {
+    release.countDown();
+    asyncRequestExecutor.shutdown();
+  }
+
+  @Test
+  public void submit_taskCompletes_resultReturned() throws Exception {
+    assertEquals("result", asyncRequestExecutor.submit(() -> "result").get(1, TimeUnit.SECONDS));
+
+    CompletableFuture<String> failed = asyncRequestExecutor.submit(() -> {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+    });
+    ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(1, TimeUnit.SECONDS));
+    assertEquals(HttpStatus.NOT_FOUND, ((ResponseStatusException) e.getCause()).getStatus());
+  }
+
+  @Test
+  public void submit_queueFull_serviceUnavailable() {
+    asyncRequestExecutor.submit(this::block);
+    asyncRequestExecutor.submit(this::block);
+
+    ResponseStatusException e = assertThrows(ResponseStatusException.class,
+        () -> asyncRequestExecutor.submit(() -> "rejected"));
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+    assertEquals(1, asyncRequestExecutor.getRejectedCount());
+    assertEquals(1, asyncRequestExecutor.getQueueDepth());
+  }
+
+  @Test
+  public void submit_deadlinePassed_serviceUnavailableNotInterrupted() throws Exception {
+    CountDownLatch finished = new CountDownLatch(1);
+    AtomicBoolean interrupted = new AtomicBoolean();
+    AtomicBoolean queuedRan = new AtomicBoolean();
+    CompletableFuture<String> running = asyncRequestExecutor.submit(() -> {
+      String result = block();
+      interrupted.set(Thread.currentThread().isInterrupted());
+      finished.countDown();
+      return result;
+    });
+    CompletableFuture<String> queued = asyncRequestExecutor.submit(() -> {
+      queuedRan.set(true);
+      return "late";
+    });
+
+    for (CompletableFuture<String> future : List.of(running, queued)) {
+      ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(2, TimeUnit.SECONDS));
+      assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ((ResponseStatusException) e.getCause()).getStatus());
+    }
+    // counted by the timer right after it failed the future
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    while (asyncRequestExecutor.getTimeoutCount() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, asyncRequestExecutor.getTimeoutCount());
+
+    // the running task finishes undisturbed, the queued one is dropped
+    release.countDown();
+    assertTrue(finished.await(1, TimeUnit.SECONDS));
+    assertFalse(interrupted.get());
+    asyncRequestExecutor.submit(() -> "next").get(1, TimeUnit.SECONDS);
+    assertFalse(queuedRan.get());
+  }
+
+  private String block() {
+    try {
+      release.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return "released";
+  }
+}
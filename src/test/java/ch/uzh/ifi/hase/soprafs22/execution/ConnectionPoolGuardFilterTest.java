@@ -0,0 +1,42 @@
+package ch.uzh.ifi.hase.soprafs22.execution;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionPoolGuardFilterTest {
+
+  private final ConnectionPoolGuardFilter filter = new ConnectionPoolGuardFilter(1, 10, Set.of());
+
+  @Test
+  public void doFilter_synchronousRequest_permitReleased() throws Exception {
+    filter.doFilter(new MockHttpServletRequest("GET", "/users/1"), new MockHttpServletResponse(),
+        (request, response) -> assertEquals(0, filter.getAvailablePermits()));
+
+    assertEquals(1, filter.getAvailablePermits());
+  }
+
+  @Test
+  public void doFilter_asyncRequest_permitHeldUntilCompleted() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users");
+    request.setAsyncSupported(true);
+    FilterChain startAsync = (servletRequest, servletResponse) -> servletRequest.startAsync();
+
+    filter.doFilter(request, new MockHttpServletResponse(), startAsync);
+
+    // the body is still being written, a second request is turned away
+    assertEquals(0, filter.getAvailablePermits());
+    MockHttpServletResponse rejected = new MockHttpServletResponse();
+    filter.doFilter(new MockHttpServletRequest("GET", "/users"), rejected, (servletRequest, servletResponse) -> fail());
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), rejected.getStatus());
+
+    request.getAsyncContext().complete();
+    assertEquals(1, filter.getAvailablePermits());
+  }
+}
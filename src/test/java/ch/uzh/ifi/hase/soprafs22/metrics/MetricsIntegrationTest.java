@@ -0,0 +1,109 @@
+package ch.uzh.ifi.hase.soprafs22.metrics;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import ch.uzh.ifi.hase.soprafs22.service.UsernameIndex;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Test class for the metrics of the user operations.
+ *
+ * @see MetricsConfig
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureMetrics
+public class MetricsIntegrationTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UsernameIndex usernameIndex;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    // the rows are deleted behind the back of the service
+    usernameIndex.rebuild();
+  }
+
+  @Test
+  public void createUser_operationTimed() {
+    double before = meterRegistry.counter("user.repository.calls", "method", "save").count();
+
+    User testUser = new User();
+    testUser.setPassword("password");
+    testUser.setUsername("testUsername");
+    userService.createUser(testUser);
+
+    assertEquals(1, meterRegistry.get("user.service").tag("operation", "create").timer().count());
+    assertEquals(before + 1, meterRegistry.counter("user.repository.calls", "method", "save").count());
+  }
+
+  @Test
+  public void getUnknownUser_errorAndRepositoryCallsCounted() throws Exception {
+    double before = meterRegistry.counter("user.errors", "status", "404").count();
+
+    mockMvc.perform(get("/users/{Id}", 12345L))
+        .andExpect(status().isNotFound());
+
+    assertEquals(before + 1, meterRegistry.counter("user.errors", "status", "404").count());
+    DistributionSummary calls = meterRegistry.get("user.repository.calls.per.request")
+        .tag("handler", "getUserById").summary();
+    assertTrue(calls.count() >= 1);
+    assertEquals(1, calls.max());
+  }
+
+  @Test
+  public void getUser_withinQueryBudget_statementsRecorded() throws Throwable {
+    User testUser = new User();
+    testUser.setPassword("password");
+    testUser.setUsername("testUsername");
+    User createdUser = userService.createUser(testUser);
+
+    QueryBudget.assertAtMost(1, () -> mockMvc.perform(get("/users/{Id}", createdUser.getId()))
+        .andExpect(status().isOk()));
+
+    DistributionSummary statements = meterRegistry.get("user.sql.statements.per.request")
+        .tag("handler", "getUserById").summary();
+    assertTrue(statements.count() >= 1);
+  }
+
+  @Test
+  public void prometheusEndpoint_userMetricsExposed() throws Exception {
+    userService.getUsersAfter(null, 10);
+
+    mockMvc.perform(get("/actuator/prometheus"))
+        .andExpect(status().isOk())
+        .andExpect(content().string(containsString("user_service_seconds_bucket")))
+        .andExpect(content().string(containsString("user_presence_online")))
+        .andExpect(content().string(containsString("hikaricp_connections_active")));
+  }
+}
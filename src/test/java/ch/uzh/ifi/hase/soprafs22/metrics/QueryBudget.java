@@ -0,0 +1,34 @@
+package ch.uzh.ifi.hase.soprafs22.metrics;
+
+import org.junit.jupiter.api.function.ThrowingSupplier;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * QueryBudget
+ * Test utility failing a test when the code under test executes more SQL
+ * statements than expected, e.g. because of an N+1 query or a redundant
+ * lookup. Only statements on the calling thread are counted, which includes
+ * requests performed through MockMvc.
+ */
+public final class QueryBudget {
+
+  private QueryBudget() {
+  }
+
+  /**
+   * Runs the action and fails if it executed more than {@code maxStatements}
+   * SQL statements.
+   *
+   * @return the result of the action
+   */
+  public static <T> T assertAtMost(int maxStatements, ThrowingSupplier<T> action) throws Throwable {
+    SqlStatementCounter.reset();
+    T result = action.get();
+    int statements = SqlStatementCounter.getCount();
+    if (statements > maxStatements) {
+      fail(String.format("Expected at most %d SQL statements, but %d were executed", maxStatements, statements));
+    }
+    return result;
+  }
+}
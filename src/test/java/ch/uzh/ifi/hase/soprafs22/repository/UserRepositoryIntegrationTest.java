@@ -6,11 +6,20 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 @DataJpaTest
+@Import(SecondLevelCacheConfig.class)
 public class UserRepositoryIntegrationTest {
 
   @Autowired
@@ -41,4 +50,73 @@ public class UserRepositoryIntegrationTest {
     assertEquals(found.getToken(), user.getToken());
     assertEquals(found.getStatus(), user.getStatus());
   }
+
+  @Test
+  public void findSummaryById_onlySummaryLoaded() {
+    // given
+    User user = new User();
+    user.setPassword("Firstname Lastname");
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.ONLINE);
+    user.setToken("1");
+
+    entityManager.persist(user);
+    entityManager.flush();
+    entityManager.clear();
+
+    // when
+    UserSummary found = userRepository.findSummaryById(user.getId());
+
+    // then -> a projection, not a managed entity
+    assertFalse(found instanceof User);
+    assertEquals(user.getId(), found.getId());
+    assertEquals(user.getUsername(), found.getUsername());
+    assertEquals(user.getStatus(), found.getStatus());
+    assertEquals(user.getlogged_in(), found.getlogged_in());
+    assertNotNull(found.getcreation_date());
+  }
+
+  @Test
+  public void findSummaries_filteredAndSortedByDatabase() {
+    // given
+    persistUser("Robert", new Date(3000L), true);
+    persistUser("robin", new Date(1000L), false);
+    persistUser("ro_bot", new Date(2000L), true);
+    persistUser("rolf", null, true);
+    persistUser("alice", new Date(2000L), true);
+    entityManager.flush();
+    entityManager.clear();
+
+    // then -> prefix case-insensitive, _ is no wildcard
+    assertEquals(List.of("Robert", "robin", "ro_bot", "rolf"), usernames(
+        UserSpecifications.usernameStartsWith("RO"), Sort.by("id"), 10));
+    assertEquals(List.of("ro_bot"), usernames(
+        UserSpecifications.usernameStartsWith("ro_"), Sort.by("id"), 10));
+
+    UserFilter filter = new UserFilter();
+    filter.setUsernamePrefix("ro");
+    filter.setLoggedIn(true);
+    filter.setBirthdayFrom(new Date(2000L));
+    filter.setBirthdayTo(new Date(3001L));
+    assertEquals(List.of("Robert", "ro_bot"), usernames(
+        UserSpecifications.matching(filter), Sort.by(Sort.Direction.DESC, "birthday"), 10));
+    assertEquals(List.of("Robert"), usernames(
+        UserSpecifications.matching(filter), Sort.by(Sort.Direction.DESC, "birthday"), 1));
+  }
+
+  private void persistUser(String username, Date birthday, boolean loggedIn) {
+    User user = new User();
+    user.setPassword("password");
+    user.setUsername(username);
+    user.setToken(username);
+    user.setBirthday(birthday);
+    user.setlogged_in(loggedIn);
+    entityManager.persist(user);
+  }
+
+  private List<String> usernames(Specification<User> specification, Sort sort, int limit) {
+    return userRepository.findSummaries(specification, sort, limit).stream()
+        .map(UserSummary::getUsername)
+        .collect(Collectors.toList());
+  }
 }
@@ -0,0 +1,86 @@
+package ch.uzh.ifi.hase.soprafs22.rest.mapper;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * UserJsonWriterTest
+ * Tests if the UserJsonWriter writes exactly the same bytes as the ObjectMapper
+ * does for the UserGetDTOs.
+ */
+public class UserJsonWriterTest {
+
+  @Test
+  public void write_isoDates_sameAsUserGetDTO() throws IOException {
+    // same date settings as the ObjectMapper of the application
+    ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+        .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .build();
+
+    assertWritesLikeUserGetDTO(objectMapper, createUsers());
+  }
+
+  @Test
+  public void write_timestampDates_sameAsUserGetDTO() throws IOException {
+    assertWritesLikeUserGetDTO(new ObjectMapper(), createUsers());
+  }
+
+  @Test
+  public void write_noUsers_emptyArray() throws IOException {
+    assertWritesLikeUserGetDTO(new ObjectMapper(), new ArrayList<>());
+  }
+
+  private void assertWritesLikeUserGetDTO(ObjectMapper objectMapper, List<User> users) throws IOException {
+    List<UserGetDTO> userGetDTOs = new ArrayList<>();
+    for (User user : users) {
+      userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+    }
+    byte[] expected = objectMapper.writeValueAsBytes(userGetDTOs);
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (UserJsonWriter writer = new UserJsonWriter(objectMapper, outputStream)) {
+      writer.writeStartArray();
+      for (User user : users) {
+        writer.write(UserSummary.of(user));
+      }
+      writer.writeEndArray();
+    }
+
+    assertArrayEquals(expected, outputStream.toByteArray());
+  }
+
+  private List<User> createUsers() {
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("firstname@lastname");
+    user.setPassword("password");
+    user.setToken("1");
+    user.setlogged_in(true);
+    user.setcreation_date(new Timestamp(1646130000123L));
+    user.setBirthday(new Date(946684800000L));
+
+    // special characters have to be escaped and unset dates written as null
+    User other = new User();
+    other.setId(2L);
+    other.setUsername("\"quoted\" \\ ünïcödé \n");
+    other.setPassword("password");
+    other.setToken("2");
+
+    return Arrays.asList(user, other);
+  }
+}
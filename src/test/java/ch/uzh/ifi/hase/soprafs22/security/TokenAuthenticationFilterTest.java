@@ -0,0 +1,95 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.service.SessionRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenAuthenticationFilterTest {
+
+  private SessionRegistry sessionRegistry;
+
+  @BeforeEach
+  public void setup() {
+    sessionRegistry = Mockito.mock(SessionRegistry.class);
+    Mockito.when(sessionRegistry.authenticate(Mockito.any())).thenReturn(null);
+    Mockito.when(sessionRegistry.authenticate("token")).thenReturn(1L);
+  }
+
+  @Test
+  public void validToken_requestPassed_userIdSet() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users/1");
+    request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer token");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+
+    new TokenAuthenticationFilter(sessionRegistry, true).doFilter(request, response, chain);
+
+    assertNotNull(chain.getRequest());
+    assertEquals(1L, request.getAttribute(TokenAuthenticationFilter.USER_ID_ATTRIBUTE));
+  }
+
+  @Test
+  public void invalidToken_unauthorized() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users/1");
+    request.addHeader(HttpHeaders.AUTHORIZATION, "other");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+
+    new TokenAuthenticationFilter(sessionRegistry, false).doFilter(request, response, chain);
+
+    assertNull(chain.getRequest());
+    assertEquals(HttpStatus.UNAUTHORIZED.value(), response.getStatus());
+  }
+
+  @Test
+  public void invalidToken_login_passedWithoutUserId() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/users/login");
+    request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer other");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+
+    new TokenAuthenticationFilter(sessionRegistry, true).doFilter(request, response, chain);
+
+    assertNotNull(chain.getRequest());
+    assertNull(request.getAttribute(TokenAuthenticationFilter.USER_ID_ATTRIBUTE));
+  }
+
+  @Test
+  public void noToken_authenticationRequired_unauthorized() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users/1");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+
+    new TokenAuthenticationFilter(sessionRegistry, true).doFilter(request, response, chain);
+
+    assertNull(chain.getRequest());
+    assertEquals(HttpStatus.UNAUTHORIZED.value(), response.getStatus());
+  }
+
+  @Test
+  public void noToken_login_passed() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/users/login");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+
+    new TokenAuthenticationFilter(sessionRegistry, true).doFilter(request, response, chain);
+
+    assertNotNull(chain.getRequest());
+
+    MockHttpServletRequest asyncRequest = new MockHttpServletRequest("PUT", "/async/users/login");
+    MockFilterChain asyncChain = new MockFilterChain();
+
+    new TokenAuthenticationFilter(sessionRegistry, true).doFilter(asyncRequest, new MockHttpServletResponse(),
+        asyncChain);
+
+    assertNotNull(asyncChain.getRequest());
+  }
+}
@@ -0,0 +1,94 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketLimiterTest {
+
+  private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+  private TokenBucketLimiter limiter;
+
+  @BeforeEach
+  public void setup() {
+    // 3 tokens, one every 10 seconds
+    limiter = new TokenBucketLimiter(3, 6, 2, 1, now::get);
+  }
+
+  @Test
+  public void tryAcquire_burstUpToCapacity_thenRejected() {
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.tryAcquire("key"));
+    }
+    assertEquals(TimeUnit.SECONDS.toNanos(10), limiter.tryAcquire("key"));
+    // other keys have their own bucket
+    assertEquals(0, limiter.tryAcquire("other"));
+  }
+
+  @Test
+  public void tryAcquire_refillsOverTime() {
+    for (int i = 0; i < 3; i++) {
+      limiter.tryAcquire("key");
+    }
+    now.addAndGet(TimeUnit.SECONDS.toNanos(4));
+    assertEquals(TimeUnit.SECONDS.toNanos(6), limiter.tryAcquire("key"));
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(6));
+    assertEquals(0, limiter.tryAcquire("key"));
+    assertTrue(limiter.tryAcquire("key") > 0);
+  }
+
+  @Test
+  public void evictIdle_dropsOnlyFullBuckets() {
+    limiter.tryAcquire("key");
+    limiter.tryAcquire("other");
+    now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+    limiter.tryAcquire("other");
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+    assertEquals(1, limiter.evictIdle());
+    assertEquals(1, limiter.size());
+  }
+
+  @Test
+  public void tryAcquire_maxKeysReached_newKeysShareOverflowBucket() {
+    for (int i = 0; i < 3; i++) {
+      limiter.tryAcquire("key");
+      limiter.tryAcquire("other");
+    }
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.tryAcquire("new" + i));
+    }
+    assertTrue(limiter.tryAcquire("third") > 0);
+    assertTrue(limiter.tryAcquire("fourth") > 0);
+    assertEquals(2, limiter.size());
+
+    // the keys get their own buckets again once idle buckets are evicted
+    now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+    assertEquals(2, limiter.evictIdle());
+    assertEquals(0, limiter.tryAcquire("third"));
+    assertEquals(1, limiter.size());
+  }
+
+  @Test
+  public void tryAcquire_maxKeysReached_floodOnlyExhaustsItsOverflowBucket() {
+    TokenBucketLimiter stripedLimiter = new TokenBucketLimiter(3, 6, 1, 4, now::get);
+    stripedLimiter.tryAcquire("key");
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, stripedLimiter.tryAcquire("flood"));
+    }
+    assertTrue(stripedLimiter.tryAcquire("flood") > 0);
+
+    String other = "user";
+    for (int i = 0; stripedLimiter.overflowIndex(other) == stripedLimiter.overflowIndex("flood"); i++) {
+      other = "user" + i;
+    }
+    assertEquals(0, stripedLimiter.tryAcquire(other));
+    assertEquals(1, stripedLimiter.size());
+  }
+}
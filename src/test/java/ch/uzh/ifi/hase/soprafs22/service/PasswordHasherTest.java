@@ -0,0 +1,92 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHasherTest {
+
+  private final PasswordHasher passwordHasher = new PasswordHasher(1000, 2, 10, 5000);
+
+  @AfterEach
+  public void tearDown() {
+    passwordHasher.shutdown();
+  }
+
+  @Test
+  public void hash_thenVerify_success() {
+    String hash = passwordHasher.hash("password");
+
+    assertNotEquals("password", hash);
+    assertTrue(passwordHasher.verify("password", hash));
+    assertFalse(passwordHasher.verify("other password", hash));
+    assertFalse(passwordHasher.needsRehash(hash));
+  }
+
+  @Test
+  public void hash_samePassword_differentSalt() {
+    assertNotEquals(passwordHasher.hash("password"), passwordHasher.hash("password"));
+  }
+
+  @Test
+  public void verify_plainTextPassword_successAndRehashNeeded() {
+    assertTrue(passwordHasher.verify("password", "password"));
+    assertTrue(passwordHasher.needsRehash("password"));
+  }
+
+  @Test
+  public void verify_malformedHash_false() {
+    String hash = passwordHasher.hash("password");
+    String[] parts = hash.split("\\$");
+
+    assertFalse(passwordHasher.verify("password", "pbkdf2-sha256$"));
+    assertFalse(passwordHasher.verify("password", "pbkdf2-sha256$1000$" + parts[2]));
+    assertFalse(passwordHasher.verify("password", "pbkdf2-sha256$many$" + parts[2] + "$" + parts[3]));
+    assertFalse(passwordHasher.verify("password", "pbkdf2-sha256$1000$%%%$" + parts[3]));
+    assertFalse(passwordHasher.verify("password", "pbkdf2-sha256$0$" + parts[2] + "$" + parts[3]));
+    assertFalse(passwordHasher.verify("password", hash.substring(0, hash.length() - 8)));
+    assertFalse(passwordHasher.verify("password", hash + "$"));
+  }
+
+  @Test
+  public void needsRehash_otherCost_true() {
+    PasswordHasher cheaperHasher = new PasswordHasher(500, 1, 1, 5000);
+    String hash = cheaperHasher.hash("password");
+    cheaperHasher.shutdown();
+
+    // the stored cost is used for verification, the configured one for rehashing
+    assertTrue(passwordHasher.verify("password", hash));
+    assertTrue(passwordHasher.needsRehash(hash));
+  }
+
+  @Test
+  public void hashAll_moreThanQueueCapacity_allHashed() {
+    List<String> hashes = passwordHasher.hashAll(List.of("a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m"));
+
+    assertEquals(13, hashes.size());
+    assertTrue(passwordHasher.verify("m", hashes.get(12)));
+  }
+
+  @Test
+  public void hashAll_duringBatch_loginsNotRejected() {
+    // the batch holds at most one of the two threads or queue slots
+    PasswordHasher smallHasher = new PasswordHasher(20000, 2, 2, 5000);
+    CompletableFuture<List<String>> batch = CompletableFuture.supplyAsync(
+        () -> smallHasher.hashAll(Collections.nCopies(20, "password")));
+
+    try {
+      for (int i = 0; i < 10 && !batch.isDone(); i++) {
+        assertNotNull(smallHasher.hash("login"));
+      }
+      assertEquals(20, batch.join().size());
+    }
+    finally {
+      smallHasher.shutdown();
+    }
+  }
+}
@@ -0,0 +1,230 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceBroadcasterTest {
+
+  private final ManualExecutor senders = new ManualExecutor();
+
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+  private final PresenceBroadcaster presenceBroadcaster = new PresenceBroadcaster(objectMapper, 2, 0L, 5000L, senders);
+
+  @AfterEach
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void publish_subscribers_eventSentToAll() {
+    RecordingEmitter first = new RecordingEmitter();
+    RecordingEmitter second = new RecordingEmitter();
+    presenceBroadcaster.subscribe(first);
+    presenceBroadcaster.subscribe(second);
+
+    presenceBroadcaster.publish(new PresenceEvent(PresenceEvent.Type.LOGIN, 1L, "username", true));
+    senders.runAll();
+
+    assertEquals(1, first.events.size());
+    assertEquals(first.events, second.events);
+    assertTrue(first.events.get(0).contains("event:LOGIN"));
+    assertTrue(first.events.get(0).contains("\"username\":\"username\""));
+    assertTrue(first.events.get(0).contains("\"logged_in\":true"));
+  }
+
+  @Test
+  public void publish_bufferFull_subscriberDropped() {
+    RecordingEmitter slow = new RecordingEmitter();
+    presenceBroadcaster.subscribe(slow);
+
+    // nothing is sent in between, the third event does not fit the buffer
+    for (int i = 0; i < 3; i++) {
+      presenceBroadcaster.publish(new PresenceEvent(PresenceEvent.Type.LOGOUT, 1L, "username", false));
+    }
+
+    assertEquals(0, presenceBroadcaster.getSubscriberCount());
+    assertEquals(1, presenceBroadcaster.getDroppedSubscriberCount());
+    // completed by a sender, not by the publishing thread
+    assertFalse(slow.completed);
+    senders.runAll();
+    assertTrue(slow.completed);
+  }
+
+  @Test
+  public void publish_slowSubscriber_othersNotDelayed() throws Exception {
+    PresenceBroadcaster broadcaster = new PresenceBroadcaster(objectMapper, 2, 0L, 5000L, 2);
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingEmitter slow = new RecordingEmitter() {
+      @Override
+      public void send(SseEventBuilder builder) {
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.send(builder);
+      }
+    };
+    CountDownLatch received = new CountDownLatch(2);
+    RecordingEmitter fast = new RecordingEmitter() {
+      @Override
+      public void send(SseEventBuilder builder) {
+        super.send(builder);
+        received.countDown();
+      }
+    };
+    broadcaster.subscribe(slow);
+    broadcaster.subscribe(fast);
+
+    try {
+      broadcaster.publish(new PresenceEvent(PresenceEvent.Type.LOGIN, 1L, "username", true));
+      broadcaster.publish(new PresenceEvent(PresenceEvent.Type.LOGOUT, 1L, "username", false));
+
+      assertTrue(received.await(1, TimeUnit.SECONDS));
+      assertEquals(2, broadcaster.getSubscriberCount());
+    }
+    finally {
+      release.countDown();
+      broadcaster.shutdown();
+    }
+  }
+
+  @Test
+  public void dropStalledSubscribers_writeBlockedTooLong_subscriberDropped() throws Exception {
+    PresenceBroadcaster broadcaster = new PresenceBroadcaster(objectMapper, 2, 0L, 1L, 1);
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingEmitter stalled = new RecordingEmitter() {
+      @Override
+      public void send(SseEventBuilder builder) {
+        sending.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.send(builder);
+      }
+    };
+    broadcaster.subscribe(stalled);
+
+    try {
+      broadcaster.publish(new PresenceEvent(PresenceEvent.Type.LOGIN, 1L, "username", true));
+      assertTrue(sending.await(1, TimeUnit.SECONDS));
+      Thread.sleep(10);
+
+      broadcaster.dropStalledSubscribers();
+      assertEquals(0, broadcaster.getSubscriberCount());
+      assertEquals(1, broadcaster.getDroppedSubscriberCount());
+
+      // completed by its own sender once the write returns
+      release.countDown();
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+      while (!stalled.completed && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      assertTrue(stalled.completed);
+    }
+    finally {
+      release.countDown();
+      broadcaster.shutdown();
+    }
+  }
+
+  @Test
+  public void publish_inTransaction_sentAfterCommit() {
+    RecordingEmitter emitter = new RecordingEmitter();
+    presenceBroadcaster.subscribe(emitter);
+    TransactionSynchronizationManager.initSynchronization();
+
+    presenceBroadcaster.publish(new PresenceEvent(PresenceEvent.Type.USERNAME_CHANGE, 1L, "renamed", true));
+    senders.runAll();
+    assertTrue(emitter.events.isEmpty());
+
+    for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+      synchronization.afterCommit();
+    }
+    senders.runAll();
+    assertEquals(1, emitter.events.size());
+  }
+
+  private static class RecordingEmitter extends SseEmitter {
+
+    private final List<String> events = new ArrayList<>();
+
+    private volatile boolean completed;
+
+    @Override
+    public void send(SseEventBuilder builder) {
+      StringBuilder event = new StringBuilder();
+      builder.build().forEach(data -> event.append(data.getData()));
+      events.add(event.toString());
+    }
+
+    @Override
+    public synchronized void complete() {
+      completed = true;
+    }
+  }
+
+  /**
+   * Runs the submitted tasks only when asked to.
+   */
+  private static class ManualExecutor extends AbstractExecutorService {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return new ArrayList<>(tasks);
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceRegistryTest {
+
+  @Mock
+  private UserRepository userRepository;
+
+  @InjectMocks
+  private PresenceRegistry presenceRegistry;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void userOnlineAndOffline_countAndOnlineUpdated() {
+    presenceRegistry.userOnline(1L);
+    presenceRegistry.userOnline(2L);
+    presenceRegistry.userOnline(1L);
+
+    assertEquals(2, presenceRegistry.getOnlineCount());
+    assertTrue(presenceRegistry.isOnline(1L));
+
+    presenceRegistry.userOffline(1L);
+    presenceRegistry.userOffline(3L);
+
+    assertEquals(1, presenceRegistry.getOnlineCount());
+    assertFalse(presenceRegistry.isOnline(1L));
+    assertTrue(presenceRegistry.isOnline(2L));
+  }
+
+  @Test
+  public void getOnlineUserIds_sortedAcrossShardsAfterCursor() {
+    // more users than shards, so every shard holds several
+    for (long id = 500; id >= 1; id--) {
+      presenceRegistry.userOnline(id);
+    }
+
+    assertArrayEquals(LongStream.rangeClosed(1, 10).toArray(), presenceRegistry.getOnlineUserIds(0L, 10));
+    assertArrayEquals(LongStream.rangeClosed(491, 500).toArray(), presenceRegistry.getOnlineUserIds(490L, 50));
+    assertEquals(0, presenceRegistry.getOnlineUserIds(500L, 10).length);
+  }
+
+  @Test
+  public void getOnlineUserIds_sparseIds_pagesMatchSortedIds() {
+    long[] online = new Random(7).longs(2000, 1, 1_000_000).distinct().sorted().toArray();
+    presenceRegistry.reset(online);
+
+    List<Long> paged = new ArrayList<>();
+    long[] page;
+    long cursor = 0;
+    do {
+      page = presenceRegistry.getOnlineUserIds(cursor, 37);
+      for (long id : page) {
+        paged.add(id);
+        cursor = id;
+      }
+    } while (page.length == 37);
+
+    assertArrayEquals(online, paged.stream().mapToLong(Long::longValue).toArray());
+    assertEquals(0, presenceRegistry.getOnlineUserIds(0L, 0).length);
+  }
+
+  @Test
+  public void reconcile_loadsLoggedInUsersFromDatabase() {
+    presenceRegistry.userOnline(7L);
+    Mockito.when(userRepository.findLoggedInIds()).thenReturn(List.of(3L, 1L, 3L, 2L));
+
+    presenceRegistry.reconcile();
+
+    assertEquals(3, presenceRegistry.getOnlineCount());
+    assertArrayEquals(new long[] { 1L, 2L, 3L }, presenceRegistry.getOnlineUserIds(0L, 10));
+    assertFalse(presenceRegistry.isOnline(7L));
+  }
+
+  @Test
+  public void userOnline_inTransaction_onlyAfterCommit() {
+    TransactionSynchronizationManager.initSynchronization();
+
+    presenceRegistry.userOnline(1L);
+
+    assertFalse(presenceRegistry.isOnline(1L));
+    for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+      synchronization.afterCommit();
+    }
+    assertTrue(presenceRegistry.isOnline(1L));
+  }
+
+  @Test
+  public void concurrentLoginsAndLogouts_noneLost() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        long offset = thread * 1000L;
+        futures.add(executor.submit(() -> {
+          for (long id = offset + 1; id <= offset + 1000; id++) {
+            presenceRegistry.userOnline(id);
+          }
+          // every second user logs out again
+          for (long id = offset + 2; id <= offset + 1000; id += 2) {
+            presenceRegistry.userOffline(id);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(4000, presenceRegistry.getOnlineCount());
+    long[] ids = presenceRegistry.getOnlineUserIds(0L, 8000);
+    assertEquals(4000, ids.length);
+    assertTrue(LongStream.of(ids).allMatch(id -> id % 2 == 1));
+  }
+}
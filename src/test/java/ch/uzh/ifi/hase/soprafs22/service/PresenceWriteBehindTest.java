@@ -0,0 +1,102 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceWriteBehindTest {
+
+  private UserRepository userRepository;
+
+  private PlatformTransactionManager transactionManager;
+
+  @BeforeEach
+  public void setup() {
+    userRepository = Mockito.mock(UserRepository.class);
+    transactionManager = Mockito.mock(PlatformTransactionManager.class);
+  }
+
+  @Test
+  public void record_writeBehindDisabled_writtenImmediately() {
+    PresenceWriteBehind presenceWriteBehind = new PresenceWriteBehind(userRepository, transactionManager, false, 10);
+
+    presenceWriteBehind.record(1L, true);
+
+    Mockito.verify(userRepository, Mockito.times(1)).updateLoggedIn(List.of(1L), true);
+    assertNull(presenceWriteBehind.getPendingState(1L));
+  }
+
+  @Test
+  public void record_writeBehindEnabled_lastWriterWins() {
+    PresenceWriteBehind presenceWriteBehind = new PresenceWriteBehind(userRepository, transactionManager, true, 10);
+
+    presenceWriteBehind.record(1L, true);
+    presenceWriteBehind.record(1L, false);
+    presenceWriteBehind.record(2L, true);
+
+    Mockito.verifyNoInteractions(userRepository);
+    assertEquals(false, presenceWriteBehind.getPendingState(1L));
+    assertEquals(2, presenceWriteBehind.getPendingCount());
+
+    presenceWriteBehind.flush();
+
+    Mockito.verify(userRepository, Mockito.times(1)).updateLoggedIn(List.of(2L), true);
+    Mockito.verify(userRepository, Mockito.times(1)).updateLoggedIn(List.of(1L), false);
+    assertEquals(0, presenceWriteBehind.getPendingCount());
+  }
+
+  @Test
+  public void record_maxPendingReached_flushed() {
+    PresenceWriteBehind presenceWriteBehind = new PresenceWriteBehind(userRepository, transactionManager, true, 2);
+
+    presenceWriteBehind.record(1L, true);
+    presenceWriteBehind.record(2L, true);
+
+    Mockito.verify(userRepository, Mockito.times(1))
+        .updateLoggedIn(Mockito.argThat(ids -> Set.copyOf(ids).equals(Set.of(1L, 2L))), Mockito.eq(true));
+    assertEquals(0, presenceWriteBehind.getPendingCount());
+  }
+
+  @Test
+  public void record_maxPendingReachedInTransaction_flushedInOwnTransactionAfterCommit() {
+    PresenceWriteBehind presenceWriteBehind = new PresenceWriteBehind(userRepository, transactionManager, true, 1);
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      presenceWriteBehind.record(1L, true);
+
+      Mockito.verifyNoInteractions(userRepository);
+      assertEquals(true, presenceWriteBehind.getPendingState(1L));
+
+      for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+        synchronization.afterCommit();
+      }
+    }
+    finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    Mockito.verify(userRepository, Mockito.times(1)).updateLoggedIn(List.of(1L), true);
+    Mockito.verify(transactionManager).getTransaction(Mockito.argThat(definition ->
+        definition.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+  }
+
+  @Test
+  public void drain_pendingChanges_written() {
+    PresenceWriteBehind presenceWriteBehind = new PresenceWriteBehind(userRepository, transactionManager, true, 10);
+    presenceWriteBehind.record(1L, false);
+
+    presenceWriteBehind.drain();
+
+    Mockito.verify(userRepository, Mockito.times(1)).updateLoggedIn(List.of(1L), false);
+  }
+}
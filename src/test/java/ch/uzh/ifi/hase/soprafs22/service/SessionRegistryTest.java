@@ -0,0 +1,87 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionRegistryTest {
+
+  @Mock
+  private UserRepository userRepository;
+
+  @Mock
+  private PresenceWriteBehind presenceWriteBehind;
+
+  @InjectMocks
+  private SessionRegistry sessionRegistry;
+
+  private User testUser;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+    // nothing pending, Mockito would answer false for the Boolean
+    Mockito.when(presenceWriteBehind.getPendingState(Mockito.any())).thenReturn(null);
+
+    testUser = new User();
+    testUser.setId(1L);
+    testUser.setUsername("testUsername");
+    testUser.setToken("token");
+    testUser.setlogged_in(true);
+  }
+
+  @Test
+  public void authenticate_registeredToken_noQuery() {
+    sessionRegistry.register(testUser);
+
+    assertEquals(testUser.getId(), sessionRegistry.authenticate("token"));
+    Mockito.verify(userRepository, Mockito.never()).findByToken(Mockito.any());
+  }
+
+  @Test
+  public void authenticate_unknownToken_primedFromRepository() {
+    Mockito.when(userRepository.findByToken("token")).thenReturn(testUser);
+
+    assertEquals(testUser.getId(), sessionRegistry.authenticate("token"));
+    assertEquals(testUser.getId(), sessionRegistry.authenticate("token"));
+
+    // the second lookup is answered from the table
+    Mockito.verify(userRepository, Mockito.times(1)).findByToken("token");
+  }
+
+  @Test
+  public void authenticate_loggedOutUser_rejected() {
+    testUser.setlogged_in(false);
+    Mockito.when(userRepository.findByToken("token")).thenReturn(testUser);
+
+    assertNull(sessionRegistry.authenticate("token"));
+    assertEquals(0, sessionRegistry.size());
+  }
+
+  @Test
+  public void authenticate_loggedOutBeforeFlush_rejected() {
+    sessionRegistry.register(testUser);
+    sessionRegistry.invalidate(testUser);
+    // the logout is still pending, the database says logged in
+    Mockito.when(presenceWriteBehind.getPendingState(testUser.getId())).thenReturn(false);
+    Mockito.when(userRepository.findByToken("token")).thenReturn(testUser);
+
+    assertNull(sessionRegistry.authenticate("token"));
+    assertEquals(0, sessionRegistry.size());
+  }
+
+  @Test
+  public void invalidate_registeredToken_rejected() {
+    sessionRegistry.register(testUser);
+    sessionRegistry.invalidate(testUser);
+
+    assertNull(sessionRegistry.authenticate("token"));
+  }
+}
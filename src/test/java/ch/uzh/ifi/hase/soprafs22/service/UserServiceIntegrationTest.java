@@ -2,15 +2,22 @@ package ch.uzh.ifi.hase.soprafs22.service;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.metrics.QueryBudget;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -29,9 +36,17 @@ public class UserServiceIntegrationTest {
   @Autowired
   private UserService userService;
 
+  @Autowired
+  private PresenceRegistry presenceRegistry;
+
+  @Autowired
+  private UsernameIndex usernameIndex;
+
   @BeforeEach
   public void setup() {
     userRepository.deleteAll();
+    presenceRegistry.reconcile();
+    usernameIndex.rebuild();
   }
 
   @Test
@@ -73,4 +88,160 @@ public class UserServiceIntegrationTest {
     // check that an error is thrown
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser2));
   }
+
+  @Test
+  public void updateUsername_takenUsername_throwsException() {
+    User testUser = new User();
+    testUser.setPassword("password");
+    testUser.setUsername("testUsername");
+    userService.createUser(testUser);
+
+    User otherUser = new User();
+    otherUser.setPassword("password");
+    otherUser.setUsername("otherUsername");
+    User createdOtherUser = userService.createUser(otherUser);
+
+    User rename = new User();
+    rename.setId(createdOtherUser.getId());
+    rename.setUsername("testUsername");
+
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.updateUsername(rename));
+    assertEquals(HttpStatus.CONFLICT, exception.getStatus());
+    assertEquals("otherUsername", userRepository.findUserById(createdOtherUser.getId()).getUsername());
+    // the rolled back rename is not in the index
+    assertEquals(1, userService.searchUsernames("testuser", 10).size());
+    assertEquals(createdOtherUser.getId(), userService.searchUsernames("other", 10).get(0).getId());
+  }
+
+  @Test
+  public void createUsers_takenAndRepeatedUsernames_conflictsReported() {
+    User existingUser = new User();
+    existingUser.setPassword("password");
+    existingUser.setUsername("taken");
+    userService.createUser(existingUser);
+
+    List<User> batch = new ArrayList<>();
+    for (String username : new String[] { "first", "taken", "second", "first" }) {
+      User user = new User();
+      user.setUsername(username);
+      user.setPassword("password");
+      batch.add(user);
+    }
+
+    UserBatchResult result = userService.createUsers(batch);
+
+    assertEquals(2, result.getCreated());
+    assertEquals(2, result.getConflicts().size());
+    assertEquals(1, result.getConflicts().get(0).getIndex());
+    assertEquals(3, result.getConflicts().get(1).getIndex());
+    assertNotNull(userRepository.findByUsername("first").getId());
+    assertNotNull(userRepository.findByUsername("second").getToken());
+  }
+
+  @Test
+  public void logoutAndLoginUser_validInputs_loggedInStateWritten() {
+    User testUser = new User();
+    testUser.setPassword("password");
+    testUser.setUsername("testUsername");
+    User createdUser = userService.createUser(testUser);
+
+    assertEquals(1, userService.getOnlineCount());
+
+    userService.logoutUser(createdUser);
+    assertFalse(userRepository.findByUsername("testUsername").getlogged_in());
+    assertTrue(userService.getOnlineUsersAfter(null, 10).isEmpty());
+
+    User credentials = new User();
+    credentials.setUsername("testUsername");
+    credentials.setPassword("password");
+    userService.loginUser(credentials);
+    assertTrue(userRepository.findByUsername("testUsername").getlogged_in());
+    List<UserSummary> online = userService.getOnlineUsersAfter(null, 10);
+    assertEquals(1, online.size());
+    assertEquals("testUsername", online.get(0).getUsername());
+  }
+
+  @Test
+  public void updateUser_partialUpdate_keepsMissingFields() {
+    User testUser = new User();
+    testUser.setPassword("password");
+    testUser.setUsername("testUsername");
+    User createdUser = userService.createUser(testUser);
+
+    Date birthday = new Date(0);
+    User birthdayOnly = new User();
+    birthdayOnly.setId(createdUser.getId());
+    birthdayOnly.setBirthday(birthday);
+    userService.updateUser(birthdayOnly);
+
+    User rename = new User();
+    rename.setId(createdUser.getId());
+    rename.setUsername("Renamed");
+    userService.updateUser(rename);
+
+    User updatedUser = userRepository.findUserById(createdUser.getId());
+    assertEquals("Renamed", updatedUser.getUsername());
+    assertEquals("renamed", updatedUser.getusername_key());
+    assertEquals(birthday.getTime(), updatedUser.getBirthday().getTime());
+
+    // only the birthday endpoint clears the birthday
+    User noBirthday = new User();
+    noBirthday.setId(createdUser.getId());
+    userService.updateUserBday(noBirthday);
+    assertNull(userRepository.findUserById(createdUser.getId()).getBirthday());
+  }
+
+  @Test
+  public void secondLevelCache_targetedUpdates_cachedUserInvalidated() throws Throwable {
+    User testUser = new User();
+    testUser.setPassword("password");
+    testUser.setUsername("testUsername");
+    User createdUser = userService.createUser(testUser);
+
+    // loaded once, afterwards served from the second-level cache
+    userService.getUserById(createdUser.getId());
+    QueryBudget.assertAtMost(0, () -> userService.getUserById(createdUser.getId()));
+    QueryBudget.assertAtMost(0, () -> userService.getUserSummaryById(createdUser.getId()));
+    userRepository.findByToken(createdUser.getToken());
+    QueryBudget.assertAtMost(0, () -> userRepository.findByToken(createdUser.getToken()));
+
+    User rename = new User();
+    rename.setId(createdUser.getId());
+    rename.setUsername("Renamed");
+    userService.updateUser(rename);
+    userService.logoutUser(userService.getUserById(createdUser.getId()));
+
+    User updatedUser = userService.getUserById(createdUser.getId());
+    assertEquals("Renamed", updatedUser.getUsername());
+    assertFalse(updatedUser.getlogged_in());
+    assertEquals("Renamed", userService.getUserSummaryById(createdUser.getId()).getUsername());
+    // the cached query results for the old username are stale
+    assertNull(userRepository.findByUsername("testUsername"));
+    assertEquals(createdUser.getId(), userRepository.findByUsername("Renamed").getId());
+    assertEquals("Renamed", userRepository.findByToken(createdUser.getToken()).getUsername());
+  }
+
+  @Test
+  public void userOperations_withinQueryBudget() throws Throwable {
+    User testUser = new User();
+    testUser.setPassword("password");
+    testUser.setUsername("testUsername");
+    // sequence, insert, the username is checked against the UsernameIndex
+    User createdUser = QueryBudget.assertAtMost(2, () -> userService.createUser(testUser));
+
+    QueryBudget.assertAtMost(1, () -> userService.getUserById(createdUser.getId()));
+    QueryBudget.assertAtMost(0, () -> userService.getUserById(createdUser.getId()));
+    QueryBudget.assertAtMost(1, () -> userService.getUserSummaryById(createdUser.getId()));
+    QueryBudget.assertAtMost(1, () -> userService.getUsersAfter(null, 10));
+
+    User update = new User();
+    update.setId(createdUser.getId());
+    update.setUsername("renamed");
+    // a single targeted update
+    QueryBudget.assertAtMost(1, () -> {
+      userService.updateUser(update);
+      return null;
+    });
+  }
 }
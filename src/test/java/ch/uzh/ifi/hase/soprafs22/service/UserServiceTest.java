@@ -2,16 +2,27 @@ package ch.uzh.ifi.hase.soprafs22.service;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserFilter;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.sql.SQLException;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -20,6 +31,30 @@ public class UserServiceTest {
   @Mock
   private UserRepository userRepository;
 
+  @Mock
+  private SessionRegistry sessionRegistry;
+
+  @Mock
+  private PresenceWriteBehind presenceWriteBehind;
+
+  @Mock
+  private PasswordHasher passwordHasher;
+
+  @Mock
+  private UserVersionTracker userVersionTracker;
+
+  @Mock
+  private PresenceBroadcaster presenceBroadcaster;
+
+  @Mock
+  private PresenceRegistry presenceRegistry;
+
+  @Mock
+  private UsernameIndex usernameIndex;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
   @InjectMocks
   private UserService userService;
 
@@ -39,6 +74,12 @@ public class UserServiceTest {
     // when -> any object is being save in the userRepository -> return the dummy
     // testUser
     Mockito.when(userRepository.save(Mockito.any())).thenReturn(testUser);
+
+    // hashing is covered by PasswordHasherTest, keep the passwords readable here
+    Mockito.when(passwordHasher.hash(Mockito.any())).thenAnswer(invocation -> invocation.getArgument(0));
+    Mockito.when(passwordHasher.hashAll(Mockito.any())).thenAnswer(invocation -> invocation.getArgument(0));
+    Mockito.when(passwordHasher.verify(Mockito.any(), Mockito.any()))
+        .thenAnswer(invocation -> Objects.equals(invocation.getArgument(0), invocation.getArgument(1)));
   }
 
     //create aka post
@@ -55,7 +96,7 @@ public class UserServiceTest {
     assertEquals(testUser.getId(), createdUser.getId());
     assertEquals(testUser.getPassword(), createdUser.getPassword());
     assertEquals(testUser.getUsername(), createdUser.getUsername());
-
+    Mockito.verify(usernameIndex, Mockito.times(1)).put(testUser.getId(), testUser.getUsername());
   }
 
 
@@ -65,13 +106,37 @@ public class UserServiceTest {
     // given -> a first user has already been created
     userService.createUser(testUser);
 
-    // when -> setup additional mocks for UserRepository
+    // when -> the unique constraint rejects the second user
     //Mockito.when(userRepository.findByName(Mockito.any())).thenReturn(testUser);
-    Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+    Mockito.doThrow(uniqueViolation()).when(userRepository).flush();
 
     // then -> attempt to create second user with same user -> check that an error
     // is thrown
-    assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.createUser(testUser));
+    assertEquals(HttpStatus.CONFLICT, exception.getStatus());
+    Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+  }
+
+  @Test
+  public void createUser_takenUsername_rejectedBeforeHashing() {
+    Mockito.when(usernameIndex.contains(testUser.getUsername())).thenReturn(true);
+
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.createUser(testUser));
+    assertEquals(HttpStatus.CONFLICT, exception.getStatus());
+    Mockito.verify(passwordHasher, Mockito.never()).hash(Mockito.any());
+    Mockito.verify(userRepository, Mockito.never()).save(Mockito.any());
+  }
+
+  @Test
+  public void createUser_tokenCollision_notReportedAsUsernameConflict() {
+    DataIntegrityViolationException tokenViolation = new DataIntegrityViolationException("could not execute statement",
+        new SQLException("duplicate key value violates unique constraint \"user_token_unique\"", "23505"));
+    Mockito.doThrow(tokenViolation).when(userRepository).flush();
+
+    assertSame(tokenViolation, assertThrows(DataIntegrityViolationException.class,
+        () -> userService.createUser(testUser)));
   }
 
   @Test
@@ -79,13 +144,34 @@ public class UserServiceTest {
     // given -> a first user has already been created
     userService.createUser(testUser);
 
-    // when -> setup additional mocks for UserRepository
+    // when -> the unique constraint rejects the second user
     //Mockito.when(userRepository.findByName(Mockito.any())).thenReturn(testUser);
-    Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+    Mockito.doThrow(uniqueViolation()).when(userRepository).flush();
 
     // then -> attempt to create second user with same user -> check that an error
     // is thrown
-    assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.createUser(testUser));
+    assertEquals(HttpStatus.CONFLICT, exception.getStatus());
+    Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+  }
+
+  @Test
+  public void createUsers_existingUsername_conflictReported() {
+      User newUser = new User();
+      newUser.setUsername("newUsername");
+      newUser.setPassword("password");
+
+      Mockito.when(userRepository.findExistingUsernames(Mockito.any()))
+              .thenReturn(Collections.singletonList(testUser.getUsername()));
+
+      UserBatchResult result = userService.createUsers(List.of(testUser, newUser));
+
+      assertEquals(1, result.getCreated());
+      assertEquals(1, result.getConflicts().size());
+      assertEquals(0, result.getConflicts().get(0).getIndex());
+      Mockito.verify(userRepository, Mockito.times(1)).saveAll(List.of(newUser));
+      assertNotNull(newUser.getToken());
   }
 
   //login
@@ -148,11 +234,33 @@ public class UserServiceTest {
 
       userService.loginUser(user);
 
-      Mockito.verify(userRepository, Mockito.times(2)).save(Mockito.any());
+      // only the creation is saved, the logged in state is a targeted update
+      Mockito.verify(userRepository, Mockito.times(1)).save(Mockito.any());
+      Mockito.verify(presenceWriteBehind, Mockito.times(1)).record(testUser.getId(), true);
+      Mockito.verify(presenceBroadcaster, Mockito.times(1)).publish(Mockito.any());
+      Mockito.verify(userVersionTracker, Mockito.times(1)).userChanged(testUser.getId());
+      // once for the creation, once for the login
+      Mockito.verify(presenceRegistry, Mockito.times(2)).userOnline(testUser.getId());
 
       assertEquals(user.getlogged_in(), true);
   }
 
+  @Test
+  public void loginUser_outdatedHash_rehashed() {
+      // given -> a user whose password was stored before hashing
+      Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+      Mockito.when(passwordHasher.needsRehash("password")).thenReturn(true);
+      Mockito.when(passwordHasher.hash("password")).thenReturn("hashed password");
+
+      User credentials = new User();
+      credentials.setUsername(testUser.getUsername());
+      credentials.setPassword("password");
+      userService.loginUser(credentials);
+
+      Mockito.verify(userRepository, Mockito.times(1)).updatePassword(testUser.getId(), "hashed password");
+      assertEquals("hashed password", testUser.getPassword());
+  }
+
   @Test
   public void loginUser_userIsAlreadyLoggedIn_throwsException() {
       // given -> a first user has already been created
@@ -177,7 +285,10 @@ public class UserServiceTest {
 
       userService.logoutUser(user);
 
-      Mockito.verify(userRepository, Mockito.times(2)).save(Mockito.any());
+      Mockito.verify(userRepository, Mockito.times(1)).save(Mockito.any());
+      Mockito.verify(presenceWriteBehind, Mockito.times(1)).record(testUser.getId(), false);
+      Mockito.verify(presenceRegistry, Mockito.times(1)).userOffline(testUser.getId());
+      Mockito.verify(userVersionTracker, Mockito.times(1)).userChanged(testUser.getId());
 
     //user successfully logged out with logged out = false = offline
       assertEquals(user.getlogged_in(), false);
@@ -203,7 +314,7 @@ public class UserServiceTest {
       // given -> a first user has already been created
       User user = userService.createUser(testUser);
 
-      Mockito.when(userRepository.findUserById(Mockito.any())).thenReturn(testUser);
+      Mockito.when(userRepository.findById(Mockito.any())).thenReturn(Optional.of(testUser));
 
       User returnedUser = userService.getUserById(user.getId());
 
@@ -215,7 +326,7 @@ public class UserServiceTest {
       // given -> a first user has already been created
         User user = userService.createUser(testUser);
 
-        Mockito.when(userRepository.findUserById(2L)).thenReturn(testUser);
+        Mockito.when(userRepository.findById(2L)).thenReturn(Optional.of(testUser));
 
         // is thrown
         assertThrows(ResponseStatusException.class, () -> userService.getUserById(user.getId()));
@@ -223,31 +334,170 @@ public class UserServiceTest {
 
 
 
+    // get Users page
+  @Test
+  public void getUsersAfter_validInputs_success() {
+      UserSummary summary = UserSummary.of(testUser);
+      Mockito.when(userRepository.findSummariesByIdGreaterThanOrderByIdAsc(Mockito.eq(0L), Mockito.any()))
+              .thenReturn(Collections.singletonList(summary));
+
+      List<UserSummary> page = userService.getUsersAfter(null, 10);
+
+      assertEquals(Collections.singletonList(summary), page);
+  }
+
+  @Test
+  public void getUsersAfter_pendingPresence_overlaid() {
+      testUser.setlogged_in(false);
+      Mockito.when(userRepository.findSummariesByIdGreaterThanOrderByIdAsc(Mockito.eq(0L), Mockito.any()))
+              .thenReturn(Collections.singletonList(UserSummary.of(testUser)));
+      Mockito.when(presenceWriteBehind.getPendingState(testUser.getId())).thenReturn(true);
+
+      List<UserSummary> page = userService.getUsersAfter(null, 10);
+
+      assertTrue(page.get(0).getlogged_in());
+      assertEquals(testUser.getUsername(), page.get(0).getUsername());
+  }
+
+  @Test
+  public void getUserSummary_notCached_projectionQueried() {
+      UserSummary summary = UserSummary.of(testUser);
+      Mockito.when(userRepository.findSummaryById(testUser.getId())).thenReturn(summary);
+
+      assertEquals(summary, userService.getUserSummaryById(testUser.getId()));
+      Mockito.verify(userRepository, Mockito.never()).findById(Mockito.any());
+  }
+
+  @Test
+  public void getUserSummary_invalidId_throwsException() {
+      assertThrows(ResponseStatusException.class, () -> userService.getUserSummaryById(2L));
+  }
+
+  @Test
+  public void getOnlineUsersAfter_onlyRegistryIdsQueried() {
+      UserSummary summary = UserSummary.of(testUser);
+      Mockito.when(presenceRegistry.getOnlineUserIds(0L, 10)).thenReturn(new long[] { testUser.getId() });
+      Mockito.when(userRepository.findSummariesByIdIn(List.of(testUser.getId())))
+              .thenReturn(Collections.singletonList(summary));
+
+      assertEquals(Collections.singletonList(summary), userService.getOnlineUsersAfter(null, 10));
+      Mockito.verify(userRepository, Mockito.never())
+              .findSummariesByIdGreaterThanOrderByIdAsc(Mockito.any(), Mockito.any());
+  }
+
+  @Test
+  public void getOnlineUsersAfter_nobodyOnline_noQuery() {
+      Mockito.when(presenceRegistry.getOnlineUserIds(0L, 10)).thenReturn(new long[0]);
+
+      assertTrue(userService.getOnlineUsersAfter(null, 10).isEmpty());
+      Mockito.verify(userRepository, Mockito.never()).findSummariesByIdIn(Mockito.any());
+  }
+
+  @Test
+  public void getUsersMatching_sortedById_keysetCursor() {
+      UserSummary summary = UserSummary.of(testUser);
+      Mockito.when(userRepository.findSummaries(Mockito.any(), Mockito.eq(Sort.by(Sort.Direction.DESC, "id")),
+              Mockito.eq(10))).thenReturn(Collections.singletonList(summary));
+
+      List<UserSummary> page = userService.getUsersMatching(new UserFilter(), Sort.by(Sort.Direction.DESC, "id"),
+              5L, 10);
+
+      assertEquals(Collections.singletonList(summary), page);
+  }
+
+  @Test
+  public void getUsersMatching_cursorWithoutIdOrder_throwsException() {
+      ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+              () -> userService.getUsersMatching(new UserFilter(), Sort.by("username"), 5L, 10));
+
+      assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+      Mockito.verify(userRepository, Mockito.never()).findSummaries(Mockito.any(), Mockito.any(), Mockito.anyInt());
+  }
+
+  @Test
+  public void searchUsernames_invalidInput_throwsException() {
+      assertThrows(ResponseStatusException.class, () -> userService.searchUsernames("", 10));
+      assertThrows(ResponseStatusException.class,
+              () -> userService.searchUsernames("ro", UserService.MAX_SEARCH_RESULTS + 1));
+      Mockito.verify(usernameIndex, Mockito.never()).search(Mockito.any(), Mockito.anyInt());
+  }
+
+  @Test
+  public void getUsersAfter_limitTooLarge_throwsException() {
+      assertThrows(ResponseStatusException.class,
+              () -> userService.getUsersAfter(null, UserService.MAX_PAGE_SIZE + 1));
+  }
+
+
+
     // update User aka put
 
   @Test
   public void updateUser_validInputs_success() {
       //set borthday to now
       Date birthday = new Date();
-      String username = "new username";
+      String username = "New Username";
 
       // given -> a first user has already been created
       User user = userService.createUser(testUser);
       user.setUsername(username);
       user.setBirthday(birthday);
 
-      Mockito.when(userRepository.findUserById(testUser.getId())).thenReturn(testUser);
+      Mockito.when(userRepository.updateProfile(testUser.getId(), username, "new username", birthday)).thenReturn(1);
 
       userService.updateUser(user);
 
-      User updatedUser = user;
+      // a single targeted update, the user is not loaded
+      Mockito.verify(userRepository, Mockito.times(1)).updateProfile(testUser.getId(), username, "new username", birthday);
+      Mockito.verify(userRepository, Mockito.never()).findById(Mockito.any());
+      Mockito.verify(userVersionTracker).userChanged(testUser.getId());
+      Mockito.verify(presenceBroadcaster).publish(Mockito.argThat(event ->
+          event.getType() == PresenceEvent.Type.USERNAME_CHANGE && username.equals(event.getUsername())));
+  }
 
-      Mockito.verify(userRepository, Mockito.times(1)).save(Mockito.any());
+  @Test
+  public void updateUser_onlyBirthday_keepsUsername() {
+      Date birthday = new Date();
+      User user = new User();
+      user.setId(1L);
+      user.setBirthday(birthday);
 
-      assertEquals(testUser.getId(), updatedUser.getId());
-      assertEquals(username, updatedUser.getUsername());
-      assertEquals(birthday, updatedUser.getBirthday());
+      Mockito.when(userRepository.updateProfile(1L, null, null, birthday)).thenReturn(1);
 
+      userService.updateUser(user);
+
+      Mockito.verify(userRepository).updateProfile(1L, null, null, birthday);
+      Mockito.verify(presenceBroadcaster, Mockito.never()).publish(Mockito.any());
+  }
+
+  @Test
+  public void updateUser_unchangedUsername_noUsernameChange() {
+      Date birthday = new Date();
+      User user = new User();
+      user.setId(1L);
+      user.setUsername(testUser.getUsername());
+      user.setBirthday(birthday);
+      Mockito.when(usernameIndex.getUsername(1L)).thenReturn(testUser.getUsername());
+      Mockito.when(userRepository.updateProfile(1L, null, null, birthday)).thenReturn(1);
+
+      userService.updateUser(user);
+
+      Mockito.verify(userRepository).updateProfile(1L, null, null, birthday);
+      Mockito.verify(usernameIndex, Mockito.never()).put(Mockito.any(), Mockito.any());
+      Mockito.verify(presenceBroadcaster, Mockito.never()).publish(Mockito.any());
+      Mockito.verify(userRepository, Mockito.never()).findSummaryById(Mockito.any());
+  }
+
+  @Test
+  public void updateUser_unknownId_throwsNotFound() {
+      User user = new User();
+      user.setId(2L);
+      user.setUsername("username");
+
+      ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+          () -> userService.updateUser(user));
+      assertEquals(HttpStatus.NOT_FOUND, exception.getStatus());
+      Mockito.verify(userVersionTracker, Mockito.never()).userChanged(Mockito.any());
   }
 
   @Test
@@ -255,16 +505,32 @@ public class UserServiceTest {
       // given -> a first user has already been created
       userService.createUser(testUser);
 
-      // when -> setup additional mocks for UserRepository
-      //Mockito.when(userRepository.findByName(Mockito.any())).thenReturn(testUser);
-      Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+      // when -> the unique constraint rejects the new username
+      Mockito.when(userRepository.updateProfile(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+          .thenThrow(uniqueViolation());
 
       // then -> attempt to create second user with same user -> check that an error
       // is thrown
-      assertThrows(ResponseStatusException.class, () -> userService.updateUser(testUser));
+      ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+          () -> userService.updateUser(testUser));
+      assertEquals(HttpStatus.CONFLICT, exception.getStatus());
 
   }
 
+  @Test
+  public void updateUserBday_unknownId_throwsNotFound() {
+      User user = new User();
+      user.setId(2L);
+      user.setBirthday(new Date());
+
+      ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+          () -> userService.updateUserBday(user));
+      assertEquals(HttpStatus.NOT_FOUND, exception.getStatus());
+  }
 
-
+  private static DataIntegrityViolationException uniqueViolation() {
+    return new DataIntegrityViolationException("could not execute statement",
+        new SQLException("Unique index or primary key violation: \"PUBLIC.USER_USERNAME_UNIQUE_INDEX_3 ON "
+            + "PUBLIC.\"\"user\"\"(USERNAME NULLS FIRST) VALUES ( /* 1 */ 'testUsername' )\"", "23505"));
+  }
 }
@@ -0,0 +1,76 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserVersionTrackerTest {
+
+  private final AtomicLong time = new AtomicLong(1000L);
+
+  private final UserVersionTracker userVersionTracker = new UserVersionTracker(time::get);
+
+  @AfterEach
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void userChanged_userAndCollectionVersionChanged() {
+    String userETag = userVersionTracker.getUserETag(1L);
+    String otherETag = userVersionTracker.getUserETag(2L);
+    String collectionETag = userVersionTracker.getCollectionETag();
+    time.set(5000L);
+
+    userVersionTracker.userChanged(1L);
+
+    assertNotEquals(userETag, userVersionTracker.getUserETag(1L));
+    assertEquals(otherETag, userVersionTracker.getUserETag(2L));
+    assertNotEquals(collectionETag, userVersionTracker.getCollectionETag());
+    assertEquals(5000L, userVersionTracker.getUserLastModified(1L));
+    assertEquals(1000L, userVersionTracker.getUserLastModified(2L));
+    assertEquals(5000L, userVersionTracker.getCollectionLastModified());
+  }
+
+  @Test
+  public void usersAdded_onlyCollectionVersionChanged() {
+    String userETag = userVersionTracker.getUserETag(1L);
+    String collectionETag = userVersionTracker.getCollectionETag();
+
+    userVersionTracker.usersAdded();
+
+    assertEquals(userETag, userVersionTracker.getUserETag(1L));
+    assertNotEquals(collectionETag, userVersionTracker.getCollectionETag());
+  }
+
+  @Test
+  public void userChanged_inTransaction_changedAfterCommit() {
+    String userETag = userVersionTracker.getUserETag(1L);
+    TransactionSynchronizationManager.initSynchronization();
+
+    userVersionTracker.userChanged(1L);
+
+    // still the old version until the transaction is committed
+    assertEquals(userETag, userVersionTracker.getUserETag(1L));
+    for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+      synchronization.afterCommit();
+    }
+    assertNotEquals(userETag, userVersionTracker.getUserETag(1L));
+  }
+
+  @Test
+  public void recordConditionalRequest_counted() {
+    userVersionTracker.recordConditionalRequest(true);
+    userVersionTracker.recordConditionalRequest(false);
+
+    assertEquals(2, userVersionTracker.getConditionalRequestCount());
+    assertEquals(1, userVersionTracker.getNotModifiedCount());
+  }
+}
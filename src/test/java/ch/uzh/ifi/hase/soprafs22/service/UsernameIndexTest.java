@@ -0,0 +1,122 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.repository.UsernameEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameIndexTest {
+
+  @Mock
+  private UserRepository userRepository;
+
+  @InjectMocks
+  private UsernameIndex usernameIndex;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  @Test
+  public void search_prefix_matchesInAlphabeticalOrder() {
+    usernameIndex.put(1L, "robin");
+    usernameIndex.put(2L, "Robert");
+    usernameIndex.put(3L, "rob");
+    usernameIndex.put(4L, "alice");
+    usernameIndex.put(5L, "ro");
+
+    assertEquals(List.of("ro", "rob", "Robert", "robin"), usernames("RO", 10));
+    assertEquals(List.of("rob", "Robert", "robin"), usernames("rob", 10));
+    // the prefix ends half way through an edge
+    assertEquals(List.of("Robert"), usernames("robe", 10));
+    assertEquals(List.of("ro", "rob"), usernames("r", 2));
+    assertEquals(List.of(), usernames("rox", 10));
+    assertEquals(List.of(), usernames("robins", 10));
+    assertEquals(3L, usernameIndex.search("rob", 1).get(0).getId());
+  }
+
+  @Test
+  public void put_rename_movedToNewUsername() {
+    usernameIndex.put(1L, "robin");
+    usernameIndex.put(2L, "robert");
+
+    usernameIndex.put(1L, "alice");
+    usernameIndex.put(2L, "Robert");
+
+    assertEquals(List.of("Robert"), usernames("rob", 10));
+    assertEquals(List.of("alice"), usernames("a", 10));
+    assertEquals(2, usernameIndex.size());
+    assertEquals("alice", usernameIndex.getUsername(1L));
+    assertTrue(usernameIndex.contains("Robert"));
+    // exact like the unique constraint: no other case, no prefix, no former name
+    assertFalse(usernameIndex.contains("robert"));
+    assertFalse(usernameIndex.contains("Rob"));
+    assertFalse(usernameIndex.contains("robin"));
+
+    // the remaining edges are merged again and still found
+    usernameIndex.put(2L, "bob");
+    assertEquals(List.of(), usernames("r", 10));
+    assertEquals(List.of("bob"), usernames("bo", 10));
+  }
+
+  @Test
+  public void put_sameKeyDifferentCase_bothFound() {
+    usernameIndex.put(1L, "rob");
+    usernameIndex.put(2L, "ROB");
+
+    assertEquals(List.of("rob", "ROB"), usernames("rob", 10));
+  }
+
+  @Test
+  public void rebuild_loadsUsernamesInChunks() {
+    List<UsernameEntry> fullChunk = new ArrayList<>();
+    for (long id = 1; id <= UsernameIndex.LOAD_CHUNK_SIZE; id++) {
+      fullChunk.add(entry(id, "user" + id));
+    }
+    Mockito.when(userRepository.findUsernamesByIdGreaterThan(0L, PageRequest.of(0, UsernameIndex.LOAD_CHUNK_SIZE)))
+        .thenReturn(fullChunk);
+    Mockito.when(userRepository.findUsernamesByIdGreaterThan((long) UsernameIndex.LOAD_CHUNK_SIZE,
+        PageRequest.of(0, UsernameIndex.LOAD_CHUNK_SIZE))).thenReturn(List.of(entry(20000L, "last")));
+    usernameIndex.put(99999L, "dropped");
+
+    usernameIndex.rebuild();
+
+    assertEquals(UsernameIndex.LOAD_CHUNK_SIZE + 1, usernameIndex.size());
+    assertEquals(List.of("user1", "user10", "user100"), usernames("user1", 3));
+    assertEquals(List.of("last"), usernames("l", 10));
+    assertEquals(List.of(), usernames("dropped", 10));
+    assertTrue(usernameIndex.getEstimatedBytes() > UsernameIndex.LOAD_CHUNK_SIZE * 50L);
+  }
+
+  private List<String> usernames(String prefix, int limit) {
+    return usernameIndex.search(prefix, limit).stream()
+        .map(UsernameIndex.Match::getUsername)
+        .collect(Collectors.toList());
+  }
+
+  private static UsernameEntry entry(long id, String username) {
+    return new UsernameEntry() {
+      @Override
+      public Long getId() {
+        return id;
+      }
+
+      @Override
+      public String getUsername() {
+        return username;
+      }
+    };
+  }
+}